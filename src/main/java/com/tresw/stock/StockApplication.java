@@ -3,9 +3,11 @@ package com.tresw.stock;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @ComponentScan
 @SpringBootApplication
+@EnableScheduling
 public class StockApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,19 @@
+package com.tresw.stock.alert;
+
+import com.tresw.stock.domain.StockAlert;
+
+/**
+ * Destination of the stock alerts. Every bean implementing it receives all the alerts, one at a time from
+ * the alerts thread.
+ * @author alejandro
+ *
+ */
+public interface AlertSink {
+
+	/**
+	 * Sends the alert
+	 * @param alert the alert to send
+	 * @throws Exception if it could not be sent, the alert is not retried
+	 */
+	void send(StockAlert alert) throws Exception;
+}
@@ -0,0 +1,44 @@
+package com.tresw.stock.alert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tresw.stock.domain.StockAlert;
+
+/**
+ * Appends the stock alerts to a file, one JSON object per line
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.alerts.sink", havingValue = "file")
+public class FileAlertSink implements AlertSink {
+
+	private static final byte[] NEW_LINE = { '\n' };
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${stock.alerts.file:./data/alerts.log}")
+	private File file;
+
+	@Override
+	public void send(StockAlert alert) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			out.write(objectMapper.writeValueAsBytes(alert));
+			out.write(NEW_LINE);
+		}
+	}
+}
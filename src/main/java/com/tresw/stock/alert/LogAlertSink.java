@@ -0,0 +1,25 @@
+package com.tresw.stock.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.domain.StockAlert;
+
+/**
+ * Writes the stock alerts to the application's log, the default sink
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.alerts.sink", havingValue = "log", matchIfMissing = true)
+public class LogAlertSink implements AlertSink {
+
+	private static final Logger log = LoggerFactory.getLogger(LogAlertSink.class);
+
+	@Override
+	public void send(StockAlert alert) {
+		log.warn("Stock alert: {}", alert);
+	}
+}
@@ -0,0 +1,156 @@
+package com.tresw.stock.alert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockAlert;
+import com.tresw.stock.domain.StockAlert.Type;
+
+/**
+ * Checks the reorder threshold of a stock every time its quantity changes, without scanning the stocks. A LOW
+ * alert is sent once when the quantity falls to the threshold or under it, and no other one until a RESTOCKED
+ * alert is sent when the quantity rises over the threshold plus the hysteresis, so a stock whose quantity goes
+ * up and down around the threshold does not send an alert on every change.
+ * <p>
+ * The alerts are queued in a bounded queue and sent to the sinks by a single thread. When the queue is full
+ * the alert is dropped and the crossing is undone, so it is detected again on the stock's next change.
+ * The low stocks are only known since the application started.
+ * @author alejandro
+ *
+ */
+@Component
+public class LowStockAlerts implements PublicMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(LowStockAlerts.class);
+
+	@Autowired(required = false)
+	private List<AlertSink> sinks = new ArrayList<>();
+
+	@Value("${stock.alerts.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.alerts.hysteresis:2}")
+	private int hysteresis;
+
+	@Value("${stock.alerts.queue-size:10000}")
+	private int queueSize;
+
+	private final Set<Integer> low = ConcurrentHashMap.newKeySet();
+
+	private BlockingQueue<StockAlert> queue;
+
+	private Thread sender;
+
+	private final LongAdder queued = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		queue = new ArrayBlockingQueue<>(queueSize);
+		sender = new Thread(this::sendLoop, "stock-alerts");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	@PreDestroy
+	public void destroy() {
+		sender.interrupt();
+	}
+
+	/**
+	 * Checks the stock's quantity against its reorder threshold, queueing an alert if it crossed it. It must be
+	 * called before the lock of the stock's change is released, so the changes of a stock are checked in order.
+	 * @param stock the stock after its quantity changed
+	 */
+	public void check(Stock stock) {
+		if (!enabled || stock == null || stock.getId() == null) {
+			return;
+		}
+		Integer stockId = stock.getId();
+		Integer threshold = stock.getReorderThreshold();
+		int quantity = stock.getQuantity();
+		if (threshold == null) {
+			low.remove(stockId);
+		} else if (quantity <= threshold) {
+			if (low.add(stockId) && !offer(new StockAlert(Type.LOW, stockId, quantity, threshold))) {
+				low.remove(stockId);
+			}
+		} else if (quantity >= threshold + hysteresis) {
+			if (low.remove(stockId) && !offer(new StockAlert(Type.RESTOCKED, stockId, quantity, threshold))) {
+				low.add(stockId);
+			}
+		}
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return true if the stock is low since the last alert sent
+	 */
+	public boolean isLow(int stockId) {
+		return low.contains(stockId);
+	}
+
+	private boolean offer(StockAlert alert) {
+		if (queue.offer(alert)) {
+			queued.increment();
+			return true;
+		}
+		dropped.increment();
+		return false;
+	}
+
+	private void sendLoop() {
+		while (!Thread.currentThread().isInterrupted()) {
+			StockAlert alert;
+			try {
+				alert = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (AlertSink sink : sinks) {
+				try {
+					sink.send(alert);
+					sent.increment();
+				} catch (Exception e) {
+					failed.increment();
+					log.warn("Could not send the alert {} to {}", alert, sink.getClass().getSimpleName(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>("stock.alerts.queued", queued.sum()));
+		metrics.add(new Metric<Long>("stock.alerts.dropped", dropped.sum()));
+		metrics.add(new Metric<Long>("stock.alerts.sent", sent.sum()));
+		metrics.add(new Metric<Long>("stock.alerts.failed", failed.sum()));
+		metrics.add(new Metric<Integer>("stock.alerts.pending", queue.size()));
+		metrics.add(new Metric<Integer>("stock.alerts.low", low.size()));
+		return metrics;
+	}
+}
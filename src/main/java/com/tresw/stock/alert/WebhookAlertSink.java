@@ -0,0 +1,36 @@
+package com.tresw.stock.alert;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import com.tresw.stock.domain.StockAlert;
+
+/**
+ * Posts the stock alerts as JSON to an url
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.alerts.sink", havingValue = "webhook")
+public class WebhookAlertSink implements AlertSink {
+
+	@Value("${stock.alerts.webhook-url}")
+	private String url;
+
+	private final RestTemplate restTemplate;
+
+	public WebhookAlertSink(@Value("${stock.alerts.webhook-timeout:5000}") int timeout) {
+		SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+		factory.setConnectTimeout(timeout);
+		factory.setReadTimeout(timeout);
+		restTemplate = new RestTemplate(factory);
+	}
+
+	@Override
+	public void send(StockAlert alert) {
+		restTemplate.postForLocation(url, alert);
+	}
+}
@@ -0,0 +1,281 @@
+package com.tresw.stock.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.domain.ClusterMember;
+import com.tresw.stock.domain.StockLease;
+import com.tresw.stock.repository.ClusterMemberRepository;
+import com.tresw.stock.repository.StockLeaseRepository;
+import com.tresw.stock.service.OwnedStockCache;
+
+/**
+ * Shares the stocks between the instances running against the same data base. The stocks are split in
+ * partitions by id and every partition has a lease in the stock_lease table, taken by one instance for a
+ * limited time and renewed with every heartbeat. Every live instance takes its fair share of the partitions
+ * and releases the ones above it, so the partitions are spread again when instances join or leave.
+ * 
+ * An instance considers a lease its own until it expires minus the allowed clock skew between the instances,
+ * the writes of its stocks also check and lock the lease in the data base while they are persisted. The
+ * scheduled jobs working on all the stocks only run on the owner of the partition 0.
+ * 
+ * The leases are kept in the data source's data base, so the cluster mode can not be enabled together with
+ * sharding: the writes of a stock would be committed in its shard apart from the lease check.
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+public class LeaseManager {
+
+	private static final Logger log = LoggerFactory.getLogger(LeaseManager.class);
+
+	@Autowired
+	private StockLeaseRepository stockLeaseRepository;
+
+	@Autowired
+	private ClusterMemberRepository clusterMemberRepository;
+
+	@Autowired
+	private OwnedStockCache ownedStockCache;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${stock.cluster.instance-id:}")
+	private String instanceId;
+
+	@Value("${stock.cluster.url:http://localhost:${server.port:8080}}")
+	private String url;
+
+	@Value("${stock.cluster.partitions:64}")
+	private int partitions;
+
+	@Value("${stock.cluster.lease-duration:10000}")
+	private long leaseDuration;
+
+	@Value("${stock.cluster.clock-skew:1000}")
+	private long clockSkew;
+
+	@Value("${stock.sharding.enabled:false}")
+	private boolean sharding;
+
+	private TransactionTemplate transaction;
+
+	private boolean leasesCreated;
+
+	/**
+	 * Partitions owned by this instance and until when, by this instance's clock
+	 */
+	private final ConcurrentMap<Integer, Long> owned = new ConcurrentHashMap<>();
+
+	private volatile Map<Integer, StockLease> leases = Collections.emptyMap();
+
+	@PostConstruct
+	public void init() {
+		if (sharding) {
+			throw new IllegalStateException("The cluster mode can not be enabled with stock.sharding.enabled");
+		}
+		transaction = new TransactionTemplate(transactionManager);
+		if (instanceId.isEmpty()) {
+			instanceId = UUID.randomUUID().toString();
+		}
+		ownedStockCache.setLeaseManager(this);
+	}
+
+	/**
+	 * Releases the leases owned, once their pending writes are persisted, so other instances take them
+	 * without waiting for them to expire
+	 */
+	@PreDestroy
+	public synchronized void destroy() {
+		for (Integer partition : new ArrayList<>(owned.keySet())) {
+			release(partition);
+		}
+		transaction.execute(status -> {
+			clusterMemberRepository.delete(instanceId);
+			return null;
+		});
+	}
+
+	/**
+	 * Renews the heartbeat of the instance and its leases, takes the free or expired leases up to its fair
+	 * share of the partitions and releases the ones above it
+	 */
+	@Scheduled(initialDelay = 0, fixedDelayString = "${stock.cluster.renew-interval:3000}")
+	public synchronized void heartbeat() {
+		long now = System.currentTimeMillis();
+		long expires = now + leaseDuration;
+		List<StockLease> current = transaction.execute(status -> {
+			clusterMemberRepository.save(new ClusterMember(instanceId, url, expires));
+			return stockLeaseRepository.findAll();
+		});
+		if (!leasesCreated) {
+			createLeases(current);
+			current = stockLeaseRepository.findAll();
+		}
+		long live = Math.max(1, clusterMemberRepository.countLive(now));
+		int fairShare = (int) ((partitions + live - 1) / live);
+		List<Integer> keep = new ArrayList<>();
+		List<Integer> take = new ArrayList<>();
+		for (StockLease lease : current) {
+			boolean mine = instanceId.equals(lease.getOwner()) && lease.getExpires() >= now;
+			if (mine) {
+				keep.add(lease.getPartitionId());
+			} else {
+				owned.remove(lease.getPartitionId());
+				if (lease.getOwner() == null || lease.getExpires() < now) {
+					take.add(lease.getPartitionId());
+				}
+			}
+		}
+		while (keep.size() > fairShare) {
+			release(keep.remove(keep.size() - 1));
+		}
+		take = take.subList(0, Math.max(0, Math.min(take.size(), fairShare - keep.size())));
+		for (Integer partition : take) {
+			ownedStockCache.evict(partition); //stale if it was owned before
+		}
+		List<Integer> acquire = new ArrayList<>(keep);
+		acquire.addAll(take);
+		List<Integer> acquired = transaction.execute(status -> {
+			List<Integer> result = new ArrayList<>();
+			for (Integer partition : acquire) {
+				if (stockLeaseRepository.acquire(partition, instanceId, url, expires, now) == 1) {
+					result.add(partition);
+				}
+			}
+			return result;
+		});
+		for (Integer partition : acquire) {
+			if (acquired.contains(partition)) {
+				owned.put(partition, expires - clockSkew);
+			} else {
+				owned.remove(partition);
+			}
+		}
+		Map<Integer, StockLease> refreshed = new HashMap<>();
+		for (StockLease lease : stockLeaseRepository.findAll()) {
+			refreshed.put(lease.getPartitionId(), lease);
+		}
+		leases = refreshed;
+		if (!take.isEmpty()) {
+			log.info("Instance {} owns {} of {} partitions", instanceId, owned.size(), partitions);
+		}
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return true if this instance owns the stock's lease
+	 */
+	public boolean owns(int stockId) {
+		Long until = owned.get(partitionOf(stockId));
+		return until != null && System.currentTimeMillis() < until;
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return url of the instance owning the stock's lease, null if this instance owns it or nobody does
+	 */
+	public String ownerUrl(int stockId) {
+		StockLease lease = leases.get(partitionOf(stockId));
+		if (lease == null || lease.getOwner() == null || instanceId.equals(lease.getOwner())
+				|| lease.getExpires() < System.currentTimeMillis()) {
+			return null;
+		}
+		return lease.getOwnerUrl();
+	}
+
+	/**
+	 * Checks in the data base that this instance still owns the partitions, it joins the current transaction
+	 * and keeps their leases locked until it ends, so they are not taken by another instance meanwhile
+	 * @param partitionIds the partitions ids
+	 * @return true if all of them are owned
+	 */
+	public boolean ownsInStore(Collection<Integer> partitionIds) {
+		long now = System.currentTimeMillis();
+		//always locked in the same order, so two transactions fencing several leases do not deadlock
+		for (Integer partition : new TreeSet<>(partitionIds)) {
+			if (stockLeaseRepository.fence(partition, instanceId, now) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if this instance runs the scheduled jobs that must run on a single instance of the cluster,
+	 * 		   the owner of the partition 0 does
+	 */
+	public boolean isLeader() {
+		Long until = owned.get(0);
+		return until != null && System.currentTimeMillis() < until;
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return the partition the stock belongs to
+	 */
+	public int partitionOf(int stockId) {
+		return Math.floorMod(stockId, partitions);
+	}
+
+	/**
+	 * @return the partitions owned by this instance
+	 */
+	public Set<Integer> getOwnedPartitions() {
+		return Collections.unmodifiableSet(owned.keySet());
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	private void release(int partition) {
+		owned.remove(partition);
+		ownedStockCache.evict(partition);
+		transaction.execute(status -> stockLeaseRepository.release(partition, instanceId));
+	}
+
+	private void createLeases(List<StockLease> current) {
+		Set<Integer> existing = new HashSet<>();
+		for (StockLease lease : current) {
+			existing.add(lease.getPartitionId());
+		}
+		for (int partition = 0; partition < partitions; partition++) {
+			if (!existing.contains(partition)) {
+				StockLease lease = new StockLease(partition);
+				try {
+					transaction.execute(status -> stockLeaseRepository.save(lease));
+				} catch (DataIntegrityViolationException e) {
+					//created by another instance at the same time
+				}
+			}
+		}
+		leasesCreated = true;
+	}
+}
@@ -0,0 +1,125 @@
+package com.tresw.stock.controller;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.service.StockService;
+
+/**
+ * Forwards the requests that modify a stock to the instance owning the stock's lease, and returns its
+ * response. The requests are only forwarded once, an instance receiving a forwarded request for a stock it
+ * does not own rejects it with HttpStatus.SERVICE_UNAVAILABLE, as when the lease has no owner.
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+public class ClusterForwardingInterceptor extends HandlerInterceptorAdapter {
+
+	static final String FORWARDED_HEADER = "X-Stock-Forwarded";
+
+	private static final String[] FORWARDED_HEADERS = { HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT,
+			"Idempotency-Key" };
+
+	private static final String[] RETURNED_HEADERS = { HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER };
+
+	@Autowired
+	private LeaseManager leaseManager;
+
+	@Autowired
+	private StockService stockService;
+
+	@Autowired
+	private RateLimitInterceptor rateLimitInterceptor;
+
+	@Value("${stock.ratelimit.client-header:X-Client-Id}")
+	private String clientHeader;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	public ClusterForwardingInterceptor() {
+		restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) {
+				return false; //the owner's errors are returned as they are
+			}
+		});
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+			throws IOException {
+		if (!"PUT".equals(request.getMethod())) {
+			return true;
+		}
+		Integer stockId = RequestStock.stockId(request, stockService);
+		if (stockId == null || leaseManager.owns(stockId)) {
+			return true;
+		}
+		String owner = leaseManager.ownerUrl(stockId);
+		if (owner == null || request.getHeader(FORWARDED_HEADER) != null) {
+			unavailable(response);
+			return false;
+		}
+		forward(request, response, owner);
+		return false;
+	}
+
+	private void forward(HttpServletRequest request, HttpServletResponse response, String owner)
+			throws IOException {
+		String query = request.getQueryString();
+		URI uri = URI.create(owner + request.getRequestURI() + (query == null ? "" : "?" + query));
+		HttpHeaders headers = new HttpHeaders();
+		for (String name : FORWARDED_HEADERS) {
+			if (request.getHeader(name) != null) {
+				headers.set(name, request.getHeader(name));
+			}
+		}
+		//the owner limits the rate of the original client, not of this instance
+		headers.set(clientHeader, rateLimitInterceptor.clientKey(request));
+		headers.set(FORWARDED_HEADER, leaseManager.getInstanceId());
+		byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+		ResponseEntity<byte[]> forwarded;
+		try {
+			forwarded = restTemplate.exchange(uri, HttpMethod.PUT, new HttpEntity<>(body, headers), byte[].class);
+		} catch (ResourceAccessException e) {
+			unavailable(response); //the owner is down, its lease expires soon
+			return;
+		}
+		response.setStatus(forwarded.getStatusCodeValue());
+		for (String name : RETURNED_HEADERS) {
+			String value = forwarded.getHeaders().getFirst(name);
+			if (value != null) {
+				response.setHeader(name, value);
+			}
+		}
+		if (forwarded.getBody() != null) {
+			response.getOutputStream().write(forwarded.getBody());
+		}
+	}
+
+	private static void unavailable(HttpServletResponse response) {
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+	}
+}
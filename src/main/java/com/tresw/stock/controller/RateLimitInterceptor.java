@@ -0,0 +1,73 @@
+package com.tresw.stock.controller;
+
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.tresw.stock.service.RateLimiter;
+import com.tresw.stock.service.StockService;
+
+/**
+ * Rejects the requests that modify the stock with HttpStatus.TOO_MANY_REQUESTS when the client or the stock
+ * exceed their rate, before the controller modifies anything.
+ * 
+ * The serial endpoints do not carry the stock's id, it is found from the product once the client is admitted,
+ * so the requests of a client over its rate do not reach the data base. The client is identified by
+ * its address, the client header is only used when the request comes from a trusted proxy, so a client can
+ * not skip its limit by changing the header.
+ * @author alejandro
+ *
+ */
+@Component
+public class RateLimitInterceptor extends HandlerInterceptorAdapter {
+
+	@Autowired
+	private RateLimiter rateLimiter;
+
+	@Autowired
+	private StockService stockService;
+
+	@Value("${stock.ratelimit.client-header:X-Client-Id}")
+	private String clientHeader;
+
+	@Value("#{'${stock.ratelimit.trusted-proxies:127.0.0.1,0:0:0:0:0:0:0:1}'.split(',')}")
+	private Set<String> trustedProxies;
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (!"PUT".equals(request.getMethod())) {
+			return true;
+		}
+		if (rateLimiter.tryAcquire(clientKey(request), () -> stockKey(request))) {
+			return true;
+		}
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+		response.setHeader("Retry-After", "1");
+		return false;
+	}
+
+	/**
+	 * @param request the request
+	 * @return the client header if the request comes from a trusted proxy, otherwise the client's address
+	 */
+	String clientKey(HttpServletRequest request) {
+		String client = request.getHeader(clientHeader);
+		return client != null && trustedProxies.contains(request.getRemoteAddr()) ? client : request.getRemoteAddr();
+	}
+
+	/**
+	 * @return the stock's id, null for the requests creating a stock or for a stock or product that does not
+	 * 		   exist, they are only limited per client
+	 */
+	private String stockKey(HttpServletRequest request) {
+		Integer stockId = RequestStock.stockId(request, stockService);
+		return stockId == null ? null : stockId.toString();
+	}
+}
@@ -0,0 +1,37 @@
+package com.tresw.stock.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.domain.ReconciliationReport;
+import com.tresw.stock.service.InventoryReconciler;
+
+/**
+ * Actuator endpoint showing the progress of the running inventory reconciliation or the result of the last one
+ * @author alejandro
+ *
+ */
+@Component
+public class ReconciliationEndpoint extends AbstractEndpoint<ReconciliationReport> {
+
+	@Autowired
+	private InventoryReconciler inventoryReconciler;
+
+	public ReconciliationEndpoint() {
+		super("reconciliation");
+	}
+
+	@Override
+	public ReconciliationReport invoke() {
+		return inventoryReconciler.getReport();
+	}
+
+	/**
+	 * Starts a reconciliation in the background
+	 * @return true if it was started, false if one was already running
+	 */
+	public boolean start() {
+		return inventoryReconciler.start();
+	}
+}
@@ -0,0 +1,45 @@
+package com.tresw.stock.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.mvc.EndpointMvcAdapter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.tresw.stock.domain.ReconciliationReport;
+
+/**
+ * Web access to the reconciliation endpoint, GET shows the report and POST starts a reconciliation
+ * @author alejandro
+ *
+ */
+@Component
+public class ReconciliationMvcEndpoint extends EndpointMvcAdapter {
+
+	private final ReconciliationEndpoint delegate;
+
+	@Autowired
+	public ReconciliationMvcEndpoint(ReconciliationEndpoint delegate) {
+		super(delegate);
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Starts a reconciliation in the background
+	 * @return HttpStatus.ACCEPTED and the report of the started reconciliation, HttpStatus.CONFLICT and the
+	 * 		   running one's report if it was already running
+	 */
+	@RequestMapping(method = RequestMethod.POST, produces = { MediaType.APPLICATION_JSON_VALUE })
+	@ResponseBody
+	public ResponseEntity<ReconciliationReport> start() {
+		if (!delegate.isEnabled()) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		HttpStatus status = delegate.start() ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT;
+		return new ResponseEntity<>(delegate.invoke(), status);
+	}
+}
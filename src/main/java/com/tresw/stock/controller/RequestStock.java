@@ -0,0 +1,55 @@
+package com.tresw.stock.controller;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.tresw.stock.service.StockService;
+
+/**
+ * Finds the stock a request modifies, from the path or, for the serial endpoints, from the product. The stock is
+ * kept in the request so the interceptors find the product only once.
+ * @author alejandro
+ *
+ */
+final class RequestStock {
+
+	private static final String ATTRIBUTE = RequestStock.class.getName();
+
+	private static final Integer NONE = -1;
+
+	private RequestStock() {
+	}
+
+	/**
+	 * @param request the request
+	 * 		  stockService service to find the product's stock
+	 * @return the stock's id, null if the request is not for an existing stock
+	 */
+	@SuppressWarnings("unchecked")
+	static Integer stockId(HttpServletRequest request, StockService stockService) {
+		Integer found = (Integer) request.getAttribute(ATTRIBUTE);
+		if (found != null) {
+			return NONE.equals(found) ? null : found;
+		}
+		Integer stockId = null;
+		Map<String, String> variables = (Map<String, String>) request
+				.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+		if (variables != null) {
+			String idStock = variables.containsKey("idstock") ? variables.get("idstock") : variables.get("idStock");
+			try {
+				if (idStock != null) {
+					stockId = Integer.valueOf(idStock);
+				} else if (variables.get("serial") != null) {
+					stockId = stockService.getProduct(variables.get("serial")).getStock().getId();
+				}
+			} catch (RuntimeException e) {
+				stockId = null; //the controller answers the invalid or missing ones
+			}
+		}
+		request.setAttribute(ATTRIBUTE, stockId == null ? NONE : stockId);
+		return stockId;
+	}
+}
@@ -0,0 +1,63 @@
+package com.tresw.stock.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.tresw.stock.shard.ShardRebalancer;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * Administration of the shards, only available when sharding is enabled
+ * @author alejandro
+ *
+ */
+@RestController
+@ConditionalOnProperty(name = "stock.sharding.enabled", havingValue = "true")
+public class ShardController {
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	/**
+	 * Gets the number of stocks held by every shard
+	 * @return HttpStatus.OK and the number of stocks of every shard, by shard index
+	 */
+	@RequestMapping(value = "/shards", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
+	@ResponseBody
+	public ResponseEntity<int[]> getShards() {
+		return new ResponseEntity<>(shardRouter.getStockCounts(), HttpStatus.OK);
+	}
+
+	/**
+	 * Adds an empty shard
+	 * @param url the shard's jdbc url, it must also be added to the configuration to be used after a restart
+	 * @return HttpStatus.OK and the new shard's index
+	 */
+	@RequestMapping(value = "/shards", method = RequestMethod.PUT, produces = { MediaType.APPLICATION_JSON_VALUE })
+	@ResponseBody
+	public ResponseEntity<Integer> addShard(@RequestParam("url") String url) {
+		return new ResponseEntity<>(shardRebalancer.addShard(url), HttpStatus.OK);
+	}
+
+	/**
+	 * Moves stocks between the shards until all of them have the same number of stocks
+	 * @return HttpStatus.OK and the number of stocks moved
+	 */
+	@RequestMapping(value = "/shards/rebalance", method = RequestMethod.PUT, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	@ResponseBody
+	public ResponseEntity<Integer> rebalance() {
+		return new ResponseEntity<>(shardRebalancer.rebalance(), HttpStatus.OK);
+	}
+}
@@ -0,0 +1,116 @@
+package com.tresw.stock.controller;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.tresw.stock.domain.InventorySnapshot;
+import com.tresw.stock.service.SnapshotService;
+
+/**
+ * Download of the binary inventory snapshot. The file is sent by the server with sendfile, which the embedded
+ * Tomcat's NIO connector supports by default, so it goes from the file to the socket without being read by the
+ * application. A connector without sendfile gets a fallback that copies the file through the heap: the response's
+ * output stream is not a file or socket channel, so transferTo reads the file into a buffer and writes it out.
+ * @author alejandro
+ *
+ */
+@RestController
+public class SnapshotController {
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	@Autowired
+	private SnapshotService snapshotService;
+
+	/**
+	 * Manages the requests to download the latest snapshot, whole or a single byte range of it
+	 * @param request with an optional Range header, and an optional If-Range header with the ETag the range
+	 * 		  belongs to
+	 * @return HttpStatus.OK - The snapshot
+	 * 		   HttpStatus.PARTIAL_CONTENT - The range of the snapshot
+	 * 		   HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE if the range is not in the file
+	 * 		   HttpStatus.NOT_FOUND if no snapshot was written yet
+	 */
+	@RequestMapping(value = "/snapshot/latest", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	public void getLatest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		InventorySnapshot snapshot = snapshotService.getLatest();
+		if (snapshot == null) {
+			response.setStatus(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+		String etag = "\"" + snapshot.getVersion() + "\"";
+		long length = snapshot.getLength();
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader(HttpHeaders.RANGE);
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, snapshot.getVersion());
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"" + snapshot.getFile().getName() + "\"");
+		if (range != null && (ifRange == null || ifRange.equals(etag))) {
+			Matcher matcher = RANGE.matcher(range.trim());
+			if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+				return;
+			}
+			if (matcher.group(1).isEmpty()) { //suffix range, the last bytes of the file
+				start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+			} else {
+				start = Long.parseLong(matcher.group(1));
+				if (!matcher.group(2).isEmpty()) {
+					end = Math.min(end, Long.parseLong(matcher.group(2)));
+				}
+			}
+			if (start > end) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+				return;
+			}
+			response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+		}
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(end - start + 1));
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, snapshot.getFile().getAbsolutePath());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end + 1);
+			return;
+		}
+		try (FileChannel file = FileChannel.open(snapshot.getFile().toPath(), StandardOpenOption.READ)) {
+			//copied through a heap buffer, the output stream's channel is not one transferTo can write to directly
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			long transferred;
+			do {
+				transferred = file.transferTo(position, end + 1 - position, out);
+				position += transferred;
+			} while (position <= end && transferred > 0);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.tresw.stock.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.trace.SqlTrace;
+import com.tresw.stock.trace.SqlTracer;
+
+/**
+ * Actuator endpoint showing the last requests that were slow, ran a slow statement or an N+1 pattern, with their
+ * SQL statements
+ * @author alejandro
+ *
+ */
+@Component
+public class SqlTraceEndpoint extends AbstractEndpoint<List<SqlTrace>> {
+
+	@Autowired
+	private SqlTracer sqlTracer;
+
+	public SqlTraceEndpoint() {
+		super("sqltraces");
+	}
+
+	@Override
+	public List<SqlTrace> invoke() {
+		return sqlTracer.getSlowTraces();
+	}
+}
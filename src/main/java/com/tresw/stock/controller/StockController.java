@@ -1,16 +1,22 @@
 package com.tresw.stock.controller;
 
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -18,41 +24,84 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.tresw.stock.domain.Stock;
+import com.tresw.stock.service.IdempotencyService;
+import com.tresw.stock.service.SalesVelocity;
 import com.tresw.stock.service.StockService;
+import com.tresw.stock.service.VersionStamps;
+import com.tresw.stock.service.VersionStamps.Tagged;
 
 @RestController
 public class StockController {
 
+	private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
 	@Autowired
 	private StockService stockService;
+
+	@Autowired
+	private IdempotencyService idempotencyService;
+
+	@Autowired
+	private RateLimitInterceptor rateLimitInterceptor;
+
+	@Autowired
+	private VersionStamps versionStamps;
+
+	@Autowired
+	private SalesVelocity salesVelocity;
 	
 	/**
 	 * Manages the requests to sell a product
 	 * @param serial the product's serial number
+	 * 		  idempotencyKey optional key, a retry with the same key gets the first request's result
 	 * @return HttpStatus.OK if everything goes ok
 	 * 		   HttpStatus.NOT_FOUND if the product is not found
 	 * 		   HttpStatus.CONFLICT if the product exists
+	 * 		   HttpStatus.UNPROCESSABLE_ENTITY if the key was used for another request
 	 */
 	@RequestMapping(value = "/product/sell/{serial}", method = RequestMethod.PUT, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	@ResponseBody
-	public ResponseEntity<?> sellProduct(@PathVariable String serial) {
-		stockService.sellProduct(serial);
-		return new ResponseEntity<>(HttpStatus.OK);
+	public ResponseEntity<?> sellProduct(@PathVariable String serial,
+			@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			HttpServletRequest request) {
+		return idempotent(idempotencyKey, request, () -> {
+			stockService.sellProduct(serial);
+			return new ResponseEntity<>(HttpStatus.OK);
+		});
 	}
 
 	
 	/**
 	 * Manages the requests to get a product
 	 * @param serial the product's serial number
+	 * 		  ifNoneMatch optional ETag of the product the client has
 	 * @return HttpStatus.OK - The product
+	 * 		   HttpStatus.NOT_MODIFIED if the product has not changed since the client got it
 	 * 		   HttpStatus.NOT_FOUND if the product is not found
 	 */
 	@RequestMapping(value = "/product/{serial}", method = RequestMethod.GET, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	@ResponseBody
-	public ResponseEntity<?> getProduct(@PathVariable String serial) {
-		return ResponseEntity.ok(stockService.getProduct(serial));
+	public ResponseEntity<?> getProduct(@PathVariable String serial,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		String current = versionStamps.productTag(serial);
+		if (matches(ifNoneMatch, current)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current).build();
+		}
+		return tagged(stockService.getTaggedProduct(serial));
+	}
+
+	/**
+	 * Manages the requests to get several products at once
+	 * @param serials list of the products serial numbers
+	 * @return HttpStatus.OK - The products found, their stocks and the serials not found
+	 * 		   HttpStatus.BAD_REQUEST if too many serials are requested
+	 */
+	@RequestMapping(value = "/products/lookup", method = RequestMethod.POST, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> lookupProducts(@RequestBody List<String> serials) {
+		return ResponseEntity.ok(stockService.lookupProducts(serials));
 	}
 
 	/**
@@ -71,45 +120,61 @@ public class StockController {
 	/**
 	 * Manages the requests to reserve a product
 	 * @param serial the product's serial number
+	 * 		  idempotencyKey optional key, a retry with the same key gets the first request's result
 	 * @return HttpStatus.OK - if everything goes ok
 	 * 		   HttpStatus.NOT_FOUND if the stock is not found
+	 * 		   HttpStatus.UNPROCESSABLE_ENTITY if the key was used for another request
 	 */
 	@RequestMapping(value = "/product/reserve/{serial}", method = RequestMethod.PUT, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	@ResponseBody
-	public ResponseEntity<?> reserveProduct(@PathVariable String serial) {
-		stockService.reserveProduct(serial);
-		return new ResponseEntity<>(HttpStatus.OK);
+	public ResponseEntity<?> reserveProduct(@PathVariable String serial,
+			@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			HttpServletRequest request) {
+		return idempotent(idempotencyKey, request, () -> {
+			stockService.reserveProduct(serial);
+			return new ResponseEntity<>(HttpStatus.OK);
+		});
 	}
 	
 	/**
 	 * Manages the requests to unreserve a product
 	 * @param serial the product's serial number
+	 * 		  idempotencyKey optional key, a retry with the same key gets the first request's result
 	 * @return HttpStatus.OK - if everything goes ok
 	 * 		   HttpStatus.NOT_FOUND if the stock is not found
+	 * 		   HttpStatus.UNPROCESSABLE_ENTITY if the key was used for another request
 	 */
 	@RequestMapping(value = "/product/unreserve/{serial}", method = RequestMethod.PUT, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	@ResponseBody
-	public ResponseEntity<?> unReserveProduct(@PathVariable String serial) {
-		stockService.unReserveProduct(serial);
-		return new ResponseEntity<>(HttpStatus.OK);
+	public ResponseEntity<?> unReserveProduct(@PathVariable String serial,
+			@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			HttpServletRequest request) {
+		return idempotent(idempotencyKey, request, () -> {
+			stockService.unReserveProduct(serial);
+			return new ResponseEntity<>(HttpStatus.OK);
+		});
 	}
 
 	/**
 	 * Manages the requests to add a product to a stock
 	 * @param  idstock stock to add the product too
 	 *         serial the product's serial number
+	 * 		   idempotencyKey optional key, a retry with the same key gets the first request's result
 	 * @return HttpStatus.OK - if everything goes ok
 	 * 		   HttpStatus.NOT_FOUND if the stock is not found
 	 * 		   HttpStatus.CONFLICT if the product already exists
+	 * 		   HttpStatus.UNPROCESSABLE_ENTITY if the key was used for another request
 	 */
 	@RequestMapping(value = "/stock/{idstock}/{serial}", method = RequestMethod.PUT, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	@ResponseBody
 	public ResponseEntity<?> addProduct(@PathVariable(name = "idstock") Integer idStock,
-			@PathVariable(name = "serial") String serial) {
-		return ResponseEntity.ok(stockService.addProduct(idStock, serial));
+			@PathVariable(name = "serial") String serial,
+			@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			HttpServletRequest request) {
+		return idempotent(idempotencyKey, request, () -> ResponseEntity.ok(stockService.addProduct(idStock, serial)));
 	}
 
 	/**
@@ -131,6 +196,23 @@ public class StockController {
 		return ResponseEntity.ok(result.getContent());
 	}
 
+	/**
+	 * Manages the requests to search stocks by name and descriptions
+	 * @param  q - the words to search, every one has to match a word or the start of a word
+	 *         count - maximum number of results, default 10
+	 * @return HttpStatus.OK - list of stocks found, the most relevant first
+	 * 		   HttpStatus.BAD_REQUEST if the count is negative
+	 */
+	@RequestMapping(value = "/stocks/search", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> searchStocks(@RequestParam(value = "q") String query,
+			@RequestParam(value = "count", defaultValue = "10", required = false) int count) {
+		if (count < 0) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(stockService.searchStocks(query, count));
+	}
+
 	/**
 	 * Manages the requests to create a new stock
 	 * @param stock to be created
@@ -157,11 +239,122 @@ public class StockController {
 	/**
 	 * Manages the requests to get a given stock
 	 * @param idStock the stocks id
+	 * 		  ifNoneMatch optional ETag of the stock the client has
 	 * @return stock 
+	 * 		   HttpStatus.NOT_MODIFIED if the stock has not changed since the client got it
 	 */
 	@RequestMapping(value = "/stock/{idStock}", method = RequestMethod.GET)
-	public ResponseEntity<?> find(@PathVariable(name="idStock") Integer idStock) {
-		return ResponseEntity.ok(stockService.getStock(idStock));
+	public ResponseEntity<?> find(@PathVariable(name="idStock") Integer idStock,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		String current = versionStamps.stockTag(idStock);
+		if (matches(ifNoneMatch, current)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current).build();
+		}
+		return tagged(stockService.getTaggedStock(idStock));
+	}
+
+	/**
+	 * Manages the requests to get the availability summary of a stock
+	 * @param idStock the stocks id
+	 * @return HttpStatus.OK - number of products in stock, reserved and sold
+	 * 		   HttpStatus.NOT_FOUND if the stock is not found
+	 */
+	@RequestMapping(value = "/stock/{idStock}/summary", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> getSummary(@PathVariable(name = "idStock") Integer idStock) {
+		return ResponseEntity.ok(stockService.getSummary(idStock));
+	}
+
+	/**
+	 * Manages the requests to get the availability summaries of several stocks
+	 * @param ids the stocks ids, unknown ids are ignored
+	 * @return HttpStatus.OK - list of summaries
+	 */
+	@RequestMapping(value = "/stocks/summary", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> getSummaries(@RequestParam(value = "ids") List<Integer> ids) {
+		return ResponseEntity.ok(stockService.getSummaries(ids));
+	}
+
+	/**
+	 * Manages the requests to get the sales velocity of a stock, counted in memory without reading the stock
+	 * @param idStock the stocks id
+	 * @return HttpStatus.OK - products sold and reserved in the last minute and hour, with the sales of every
+	 * 		   second of the last minute and every minute of the last hour
+	 * 		   HttpStatus.NOT_FOUND if the velocity is not counted, as in cluster mode
+	 */
+	@RequestMapping(value = "/stock/{idStock}/velocity", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> getVelocity(@PathVariable(name = "idStock") Integer idStock) {
+		if (!salesVelocity.isEnabled()) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(salesVelocity.velocity(idStock));
+	}
+
+	/**
+	 * Manages the requests to get the stocks selling the most
+	 * @param count maximum number of stocks, default 10
+	 * 		  window minute or hour, the sales ranked, default minute
+	 * @return HttpStatus.OK - list of the stocks with sales in the window, the hottest first
+	 * 		   HttpStatus.BAD_REQUEST if the window is unknown
+	 * 		   HttpStatus.NOT_FOUND if the velocity is not counted, as in cluster mode
+	 */
+	@RequestMapping(value = "/stocks/hottest", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> getHottest(@RequestParam(value = "count", defaultValue = "10", required = false) int count,
+			@RequestParam(value = "window", defaultValue = "minute", required = false) String window) {
+		if (!salesVelocity.isEnabled()) {
+			return ResponseEntity.notFound().build();
+		}
+		if (!"minute".equals(window) && !"hour".equals(window)) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(salesVelocity.hottest(count, "hour".equals(window)));
+	}
+
+	/**
+	 * Manages the requests to recompute the availability summaries from the products
+	 * @return HttpStatus.OK - number of stocks repaired
+	 */
+	@RequestMapping(value = "/stocks/summary/repair", method = RequestMethod.PUT, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<?> repairSummaries() {
+		return ResponseEntity.ok(stockService.repairSummaries());
+	}
+
+	private static ResponseEntity<?> tagged(Tagged<?> tagged) {
+		if (tagged.getTag() == null) {
+			return ResponseEntity.ok(tagged.getValue());
+		}
+		return ResponseEntity.ok().eTag(tagged.getTag()).body(tagged.getValue());
+	}
+
+	/**
+	 * @param ifNoneMatch the If-None-Match header, a list of ETags
+	 * 		  tag the current ETag, null if there is none
+	 * @return true if the current ETag is in the list, weak ETags included
+	 */
+	private static boolean matches(String ifNoneMatch, String tag) {
+		if (ifNoneMatch == null || tag == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ResponseEntity<?> idempotent(String idempotencyKey, HttpServletRequest request,
+			Supplier<ResponseEntity<?>> action) {
+		return idempotencyService.execute(rateLimitInterceptor.clientKey(request), idempotencyKey,
+				request.getMethod() + " " + request.getRequestURI(), action);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.tresw.stock.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Registers the interceptors applied to the stock's endpoints
+ * @author alejandro
+ *
+ */
+@Configuration
+public class WebConfig extends WebMvcConfigurerAdapter {
+
+	@Autowired
+	private RateLimitInterceptor rateLimitInterceptor;
+
+	@Autowired(required = false)
+	private ClusterForwardingInterceptor clusterForwardingInterceptor;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		if (clusterForwardingInterceptor != null) {
+			//the owner of the stock applies the rate limit
+			registry.addInterceptor(clusterForwardingInterceptor).addPathPatterns("/product/sell/*",
+					"/product/reserve/*", "/product/unreserve/*", "/stock/*/*", "/stock/*");
+		}
+		registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/product/sell/*", "/product/reserve/*",
+				"/product/unreserve/*", "/stock/*/*", "/stock/*");
+	}
+}
@@ -0,0 +1,69 @@
+package com.tresw.stock.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+import com.tresw.stock.domain.Product.Status;
+
+/**
+ * A sold product moved out of the product table, so the table holding the products still in the stock
+ * stays small. It keeps the product's id and only references its stock by id.
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "product_archive", indexes = { @Index(name = "idx_product_archive_serial_no", columnList = "serial_no"),
+		@Index(name = "idx_product_archive_id_stock", columnList = "id_stock") })
+public class ArchivedProduct {
+
+	@Id
+	private Integer id;
+	@NotNull
+	@Column(name = "serial_no")
+	private String serialNo;
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	@Column(columnDefinition = "varchar(10)")
+	private Status status;
+	@NotNull
+	@Column(name = "id_stock", columnDefinition = "INT", nullable = false)
+	private Integer stockId;
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public String getSerialNo() {
+		return serialNo;
+	}
+
+	public void setSerialNo(String serialNo) {
+		this.serialNo = serialNo;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+}
@@ -0,0 +1,56 @@
+package com.tresw.stock.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Heartbeat of an instance of the cluster, the live instances share the stocks partitions between them
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "cluster_member")
+public class ClusterMember {
+
+	@Id
+	@Column(name = "instance_id")
+	private String instanceId;
+	private String url;
+	@Column(columnDefinition = "BIGINT default 0", nullable = false)
+	private long expires;
+
+	public ClusterMember() {
+	}
+
+	public ClusterMember(String instanceId, String url, long expires) {
+		this.instanceId = instanceId;
+		this.url = url;
+		this.expires = expires;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public void setInstanceId(String instanceId) {
+		this.instanceId = instanceId;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public long getExpires() {
+		return expires;
+	}
+
+	public void setExpires(long expires) {
+		this.expires = expires;
+	}
+}
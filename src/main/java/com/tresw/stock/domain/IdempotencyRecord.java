@@ -0,0 +1,65 @@
+package com.tresw.stock.domain;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Status of the result of a request sent with an idempotency key, kept to replay it when the request is
+ * retried. The key is prefixed with the client's.
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "idempotency_record")
+public class IdempotencyRecord {
+
+	@Id
+	@Column(name = "idempotency_key")
+	private String key;
+	@NotNull
+	private String fingerprint;
+	@NotNull
+	private int status;
+	@NotNull
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date created;
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+}
@@ -0,0 +1,49 @@
+package com.tresw.stock.domain;
+
+import java.io.File;
+
+/**
+ * A binary snapshot file of all the stocks and products
+ * @author alejandro
+ *
+ */
+public class InventorySnapshot {
+
+	private final File file;
+	private final long version;
+	private final int stocks;
+	private final long products;
+
+	public InventorySnapshot(File file, long version, int stocks, long products) {
+		this.file = file;
+		this.version = version;
+		this.stocks = stocks;
+		this.products = products;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the time the snapshot was started in ms, it identifies the snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getStocks() {
+		return stocks;
+	}
+
+	public long getProducts() {
+		return products;
+	}
+
+	/**
+	 * @return the file's length in bytes
+	 */
+	public long getLength() {
+		return file.length();
+	}
+}
@@ -0,0 +1,49 @@
+package com.tresw.stock.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Directory entry telling to which stock a serial number belongs, so the product can be found without
+ * searching every shard. It also keeps the serial numbers unique across the shards.
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "product_directory")
+public class ProductDirectoryEntry {
+
+	@Id
+	@Column(name = "serial_no")
+	private String serialNo;
+	@NotNull
+	@Column(name = "stock_id")
+	private Integer stockId;
+
+	public ProductDirectoryEntry() {
+	}
+
+	public ProductDirectoryEntry(String serialNo, Integer stockId) {
+		this.serialNo = serialNo;
+		this.stockId = stockId;
+	}
+
+	public String getSerialNo() {
+		return serialNo;
+	}
+
+	public void setSerialNo(String serialNo) {
+		this.serialNo = serialNo;
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+}
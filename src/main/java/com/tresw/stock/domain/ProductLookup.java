@@ -0,0 +1,170 @@
+package com.tresw.stock.domain;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tresw.stock.domain.Product.Status;
+
+/**
+ * Result of looking up several products by serial number. The products only reference their stock by id,
+ * every stock involved is included once in the list of stocks.
+ * @author alejandro
+ *
+ */
+public class ProductLookup {
+
+	private List<Item> products = new ArrayList<>();
+	private List<StockHeader> stocks = new ArrayList<>();
+	private List<String> unknown = new ArrayList<>();
+
+	public List<Item> getProducts() {
+		return products;
+	}
+
+	public void setProducts(List<Item> products) {
+		this.products = products;
+	}
+
+	public List<StockHeader> getStocks() {
+		return stocks;
+	}
+
+	public void setStocks(List<StockHeader> stocks) {
+		this.stocks = stocks;
+	}
+
+	public List<String> getUnknown() {
+		return unknown;
+	}
+
+	public void setUnknown(List<String> unknown) {
+		this.unknown = unknown;
+	}
+
+	/**
+	 * A product found
+	 */
+	public static class Item {
+
+		private Integer id;
+		private String serialNo;
+		private Status status;
+		private Integer stockId;
+
+		public Item() {
+		}
+
+		public Item(Integer id, String serialNo, Status status, Integer stockId) {
+			this.id = id;
+			this.serialNo = serialNo;
+			this.status = status;
+			this.stockId = stockId;
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getSerialNo() {
+			return serialNo;
+		}
+
+		public void setSerialNo(String serialNo) {
+			this.serialNo = serialNo;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public void setStatus(Status status) {
+			this.status = status;
+		}
+
+		public Integer getStockId() {
+			return stockId;
+		}
+
+		public void setStockId(Integer stockId) {
+			this.stockId = stockId;
+		}
+	}
+
+	/**
+	 * The stock's data without its products
+	 */
+	public static class StockHeader {
+
+		private Integer id;
+		private String name;
+		private String shortDescription;
+		private String longDescription;
+		private BigDecimal price;
+		private int quantity;
+
+		public StockHeader() {
+		}
+
+		public StockHeader(Stock stock) {
+			this.id = stock.getId();
+			this.name = stock.getName();
+			this.shortDescription = stock.getShortDescription();
+			this.longDescription = stock.getLongDescription();
+			this.price = stock.getPrice();
+			this.quantity = stock.getQuantity();
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getShortDescription() {
+			return shortDescription;
+		}
+
+		public void setShortDescription(String shortDescription) {
+			this.shortDescription = shortDescription;
+		}
+
+		public String getLongDescription() {
+			return longDescription;
+		}
+
+		public void setLongDescription(String longDescription) {
+			this.longDescription = longDescription;
+		}
+
+		public BigDecimal getPrice() {
+			return price;
+		}
+
+		public void setPrice(BigDecimal price) {
+			this.price = price;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public void setQuantity(int quantity) {
+			this.quantity = quantity;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.tresw.stock.domain;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Progress and result of the reconciliation of the stocks quantities and counters with their products
+ * @author alejandro
+ *
+ */
+public class ReconciliationReport {
+
+	/**
+	 * State of the reconciliation
+	 */
+	public enum State {
+		IDLE, RUNNING, COMPLETED, FAILED
+	}
+
+	private State state = State.IDLE;
+	private Date started;
+	private Date finished;
+	private long stocksTotal;
+	private long stocksChecked;
+	private long productsCounted;
+	private long productsPerSecond;
+	private long corrected;
+	private long changedConcurrently;
+	private long skipped;
+	private String error;
+	private List<Correction> corrections = new ArrayList<>();
+
+	public State getState() {
+		return state;
+	}
+
+	public void setState(State state) {
+		this.state = state;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public void setStarted(Date started) {
+		this.started = started;
+	}
+
+	public Date getFinished() {
+		return finished;
+	}
+
+	public void setFinished(Date finished) {
+		this.finished = finished;
+	}
+
+	public long getStocksTotal() {
+		return stocksTotal;
+	}
+
+	public void setStocksTotal(long stocksTotal) {
+		this.stocksTotal = stocksTotal;
+	}
+
+	public long getStocksChecked() {
+		return stocksChecked;
+	}
+
+	public void setStocksChecked(long stocksChecked) {
+		this.stocksChecked = stocksChecked;
+	}
+
+	public long getProductsCounted() {
+		return productsCounted;
+	}
+
+	public void setProductsCounted(long productsCounted) {
+		this.productsCounted = productsCounted;
+	}
+
+	public long getProductsPerSecond() {
+		return productsPerSecond;
+	}
+
+	public void setProductsPerSecond(long productsPerSecond) {
+		this.productsPerSecond = productsPerSecond;
+	}
+
+	public long getCorrected() {
+		return corrected;
+	}
+
+	public void setCorrected(long corrected) {
+		this.corrected = corrected;
+	}
+
+	public long getChangedConcurrently() {
+		return changedConcurrently;
+	}
+
+	public void setChangedConcurrently(long changedConcurrently) {
+		this.changedConcurrently = changedConcurrently;
+	}
+
+	/**
+	 * @return stocks not reconciled because another instance of the cluster owns them
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(long skipped) {
+		this.skipped = skipped;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public List<Correction> getCorrections() {
+		return corrections;
+	}
+
+	public void setCorrections(List<Correction> corrections) {
+		this.corrections = corrections;
+	}
+
+	/**
+	 * A stock whose quantity or counters were corrected, with the values found and the ones saved
+	 */
+	public static class Correction {
+
+		private StockSummary found;
+		private StockSummary saved;
+
+		public Correction() {
+		}
+
+		public Correction(StockSummary found, StockSummary saved) {
+			this.found = found;
+			this.saved = saved;
+		}
+
+		public StockSummary getFound() {
+			return found;
+		}
+
+		public void setFound(StockSummary found) {
+			this.found = found;
+		}
+
+		public StockSummary getSaved() {
+			return saved;
+		}
+
+		public void setSaved(StockSummary saved) {
+			this.saved = saved;
+		}
+	}
+}
@@ -15,9 +15,11 @@ import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.tresw.stock.domain.Product.Status;
 
 @Entity
 @Table(name = "stock")
@@ -40,6 +42,17 @@ public class Stock {
 	private BigDecimal price;
 	@NotNull
 	private int quantity;
+	@JsonIgnore
+	@Column(name = "in_stock", columnDefinition = "INT default 0", nullable = false)
+	private int inStock;
+	@JsonIgnore
+	@Column(columnDefinition = "INT default 0", nullable = false)
+	private int reserved;
+	@JsonIgnore
+	@Column(columnDefinition = "INT default 0", nullable = false)
+	private int sold;
+	@Column(name = "reorder_threshold")
+	private Integer reorderThreshold;
 	@OneToMany(mappedBy = "stock", fetch = FetchType.LAZY)
 	@JsonManagedReference
 	private Set<Product> products = new HashSet<>();
@@ -99,4 +112,70 @@ public class Stock {
 	public void setProducts(Set<Product> products) {
 		this.products = products;
 	}
+
+	public int getInStock() {
+		return inStock;
+	}
+
+	public void setInStock(int inStock) {
+		this.inStock = inStock;
+	}
+
+	public int getReserved() {
+		return reserved;
+	}
+
+	public void setReserved(int reserved) {
+		this.reserved = reserved;
+	}
+
+	public int getSold() {
+		return sold;
+	}
+
+	public void setSold(int sold) {
+		this.sold = sold;
+	}
+
+	/**
+	 * @return the quantity at or under which the stock is low and an alert is sent, null if never
+	 */
+	public Integer getReorderThreshold() {
+		return reorderThreshold;
+	}
+
+	public void setReorderThreshold(Integer reorderThreshold) {
+		this.reorderThreshold = reorderThreshold;
+	}
+
+	/**
+	 * Adds delta to the counter kept for the given product status
+	 * @param status the product status whose counter is updated
+	 * 		   delta the amount to add, negative to subtract
+	 */
+	public void addCount(Status status, int delta) {
+		switch (status) {
+		case IN_STOCK:
+			inStock += delta;
+			break;
+		case RESERVED:
+			reserved += delta;
+			break;
+		case SOLD:
+			sold += delta;
+			break;
+		}
+	}
+
+	/**
+	 * Moves one product from a status counter to another
+	 * @param from the product's previous status, null if the product is new
+	 * 		   to the product's new status
+	 */
+	public void moveCount(Status from, Status to) {
+		if (from != null) {
+			addCount(from, -1);
+		}
+		addCount(to, 1);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.tresw.stock.domain;
+
+import java.util.Date;
+
+/**
+ * Alert sent when a stock's quantity crosses its reorder threshold
+ * @author alejandro
+ *
+ */
+public class StockAlert {
+
+	/**
+	 * The crossing, LOW when the quantity falls to the threshold or under it and RESTOCKED when it rises again
+	 * over the threshold plus the hysteresis
+	 */
+	public enum Type {
+		LOW, RESTOCKED
+	}
+
+	private Type type;
+	private Integer stockId;
+	private int quantity;
+	private int threshold;
+	private Date time;
+
+	public StockAlert() {
+	}
+
+	public StockAlert(Type type, Integer stockId, int quantity, int threshold) {
+		this.type = type;
+		this.stockId = stockId;
+		this.quantity = quantity;
+		this.threshold = threshold;
+		this.time = new Date();
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public Date getTime() {
+		return time;
+	}
+
+	public void setTime(Date time) {
+		this.time = time;
+	}
+
+	@Override
+	public String toString() {
+		return type + " stock " + stockId + " quantity " + quantity + " threshold " + threshold;
+	}
+}
@@ -0,0 +1,65 @@
+package com.tresw.stock.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Ownership lease of a partition of the stocks. While the lease has not expired only its owner instance
+ * modifies the stocks of the partition, the other instances forward the requests to the owner's url.
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "stock_lease")
+public class StockLease {
+
+	@Id
+	@Column(name = "partition_id")
+	private Integer partitionId;
+	private String owner;
+	@Column(name = "owner_url")
+	private String ownerUrl;
+	@Column(columnDefinition = "BIGINT default 0", nullable = false)
+	private long expires;
+
+	public StockLease() {
+	}
+
+	public StockLease(Integer partitionId) {
+		this.partitionId = partitionId;
+	}
+
+	public Integer getPartitionId() {
+		return partitionId;
+	}
+
+	public void setPartitionId(Integer partitionId) {
+		this.partitionId = partitionId;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public String getOwnerUrl() {
+		return ownerUrl;
+	}
+
+	public void setOwnerUrl(String ownerUrl) {
+		this.ownerUrl = ownerUrl;
+	}
+
+	public long getExpires() {
+		return expires;
+	}
+
+	public void setExpires(long expires) {
+		this.expires = expires;
+	}
+}
@@ -0,0 +1,86 @@
+package com.tresw.stock.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * A stock found by a search, with the descriptive fields kept in the search index and its relevance
+ * @author alejandro
+ *
+ */
+public class StockSearchResult {
+
+	private Integer id;
+	private String name;
+	private String shortDescription;
+	private String longDescription;
+	private BigDecimal price;
+	private int score;
+
+	public StockSearchResult() {
+	}
+
+	public StockSearchResult(Stock stock) {
+		this.id = stock.getId();
+		this.name = stock.getName();
+		this.shortDescription = stock.getShortDescription();
+		this.longDescription = stock.getLongDescription();
+		this.price = stock.getPrice();
+	}
+
+	public StockSearchResult(StockSearchResult result, int score) {
+		this.id = result.getId();
+		this.name = result.getName();
+		this.shortDescription = result.getShortDescription();
+		this.longDescription = result.getLongDescription();
+		this.price = result.getPrice();
+		this.score = score;
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getShortDescription() {
+		return shortDescription;
+	}
+
+	public void setShortDescription(String shortDescription) {
+		this.shortDescription = shortDescription;
+	}
+
+	public String getLongDescription() {
+		return longDescription;
+	}
+
+	public void setLongDescription(String longDescription) {
+		this.longDescription = longDescription;
+	}
+
+	public BigDecimal getPrice() {
+		return price;
+	}
+
+	public void setPrice(BigDecimal price) {
+		this.price = price;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public void setScore(int score) {
+		this.score = score;
+	}
+}
@@ -0,0 +1,47 @@
+package com.tresw.stock.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Directory entry telling in which shard a stock, and all its products, are stored
+ * @author alejandro
+ *
+ */
+@Entity
+@Table(name = "stock_shard")
+public class StockShard {
+
+	@Id
+	@Column(name = "stock_id")
+	private Integer stockId;
+	@NotNull
+	private int shard;
+
+	public StockShard() {
+	}
+
+	public StockShard(Integer stockId, int shard) {
+		this.stockId = stockId;
+		this.shard = shard;
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	public void setShard(int shard) {
+		this.shard = shard;
+	}
+}
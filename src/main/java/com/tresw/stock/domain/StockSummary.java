@@ -0,0 +1,67 @@
+package com.tresw.stock.domain;
+
+/**
+ * Availability summary of a stock, the number of its products in every status.
+ * It is built from the counters kept in the stock so the product table is not read.
+ * @author alejandro
+ *
+ */
+public class StockSummary {
+
+	private Integer stockId;
+	private int quantity;
+	private int inStock;
+	private int reserved;
+	private int sold;
+
+	public StockSummary() {
+	}
+
+	public StockSummary(Stock stock) {
+		this.stockId = stock.getId();
+		this.quantity = stock.getQuantity();
+		this.inStock = stock.getInStock();
+		this.reserved = stock.getReserved();
+		this.sold = stock.getSold();
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public int getInStock() {
+		return inStock;
+	}
+
+	public void setInStock(int inStock) {
+		this.inStock = inStock;
+	}
+
+	public int getReserved() {
+		return reserved;
+	}
+
+	public void setReserved(int reserved) {
+		this.reserved = reserved;
+	}
+
+	public int getSold() {
+		return sold;
+	}
+
+	public void setSold(int sold) {
+		this.sold = sold;
+	}
+}
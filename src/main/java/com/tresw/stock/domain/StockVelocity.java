@@ -0,0 +1,91 @@
+package com.tresw.stock.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Products of a stock sold and reserved over the last minute and the last hour, counted in memory since the
+ * application started
+ * @author alejandro
+ *
+ */
+@JsonInclude(value = Include.NON_NULL)
+public class StockVelocity {
+
+	private Integer stockId;
+	private long soldLastMinute;
+	private long soldLastHour;
+	private long reservedLastMinute;
+	private long reservedLastHour;
+	private int[] soldPerSecond;
+	private int[] soldPerMinute;
+
+	public StockVelocity() {
+	}
+
+	public StockVelocity(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public Integer getStockId() {
+		return stockId;
+	}
+
+	public void setStockId(Integer stockId) {
+		this.stockId = stockId;
+	}
+
+	public long getSoldLastMinute() {
+		return soldLastMinute;
+	}
+
+	public void setSoldLastMinute(long soldLastMinute) {
+		this.soldLastMinute = soldLastMinute;
+	}
+
+	public long getSoldLastHour() {
+		return soldLastHour;
+	}
+
+	public void setSoldLastHour(long soldLastHour) {
+		this.soldLastHour = soldLastHour;
+	}
+
+	public long getReservedLastMinute() {
+		return reservedLastMinute;
+	}
+
+	public void setReservedLastMinute(long reservedLastMinute) {
+		this.reservedLastMinute = reservedLastMinute;
+	}
+
+	public long getReservedLastHour() {
+		return reservedLastHour;
+	}
+
+	public void setReservedLastHour(long reservedLastHour) {
+		this.reservedLastHour = reservedLastHour;
+	}
+
+	/**
+	 * @return products sold in every second of the last minute, the oldest first, only in the detailed velocity
+	 */
+	public int[] getSoldPerSecond() {
+		return soldPerSecond;
+	}
+
+	public void setSoldPerSecond(int[] soldPerSecond) {
+		this.soldPerSecond = soldPerSecond;
+	}
+
+	/**
+	 * @return products sold in every minute of the last hour, the oldest first, only in the detailed velocity
+	 */
+	public int[] getSoldPerMinute() {
+		return soldPerMinute;
+	}
+
+	public void setSoldPerMinute(int[] soldPerMinute) {
+		this.soldPerMinute = soldPerMinute;
+	}
+}
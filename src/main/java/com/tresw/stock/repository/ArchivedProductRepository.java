@@ -0,0 +1,72 @@
+package com.tresw.stock.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.ArchivedProduct;
+
+/**
+ * This class is the data base access layer for archived products
+ * @author alejandro
+ *
+ */
+@Repository
+public interface ArchivedProductRepository extends JpaRepository<ArchivedProduct, Integer> {
+
+	/**
+	 * Finds the archived product by it's serial number
+	 * @param serial
+	 * @return null if if does not exist, an instance of archived product if it exists
+	 */
+	@Query("SELECT a FROM ArchivedProduct a WHERE a.serialNo = :serial")
+	public ArchivedProduct findBySerialNo(@Param("serial") String serial);
+
+	/**
+	 * Finds the stock of the archived product with the serial number
+	 * @param serial the product's serial number
+	 * @return the stock's id, null if the product is not archived
+	 */
+	@Query("SELECT a.stockId FROM ArchivedProduct a WHERE a.serialNo = :serial")
+	public Integer findStockIdBySerialNo(@Param("serial") String serial);
+
+	/**
+	 * Copies the given products to the archive, in a single statement
+	 * @param ids the products ids
+	 * @return number of products archived
+	 */
+	@Modifying
+	@Query("INSERT INTO ArchivedProduct (id, serialNo, status, stockId) "
+			+ "SELECT p.id, p.serialNo, p.status, p.stock.id FROM Product p WHERE p.id IN :ids")
+	public int archive(@Param("ids") List<Integer> ids);
+
+	/**
+	 * Counts the archived products of every stock grouped by status, in a single query
+	 * @return list of rows with the stock's id, the status and the number of products
+	 */
+	@Query("SELECT a.stockId, a.status, COUNT(a) FROM ArchivedProduct a GROUP BY a.stockId, a.status")
+	public List<Object[]> countByStockAndStatus();
+
+	/**
+	 * Finds the archived products with the given serial numbers
+	 * @param serials the serial numbers
+	 * @return list of rows with the product's id, serial number, status and stock's id
+	 */
+	@Query("SELECT a.id, a.serialNo, a.status, a.stockId FROM ArchivedProduct a WHERE a.serialNo IN :serials")
+	public List<Object[]> findRowsBySerialNoIn(@Param("serials") Collection<String> serials);
+
+	/**
+	 * Counts the archived products of the stocks with ids in the range grouped by stock and status
+	 * @param from the first stock's id
+	 * 		  to the last stock's id
+	 * @return list of rows with the stock's id, the status and the number of products
+	 */
+	@Query("SELECT a.stockId, a.status, COUNT(a) FROM ArchivedProduct a WHERE a.stockId BETWEEN :from AND :to "
+			+ "GROUP BY a.stockId, a.status")
+	public List<Object[]> countByStockAndStatusBetween(@Param("from") Integer from, @Param("to") Integer to);
+}
\ No newline at end of file
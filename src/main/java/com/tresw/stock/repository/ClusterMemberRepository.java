@@ -0,0 +1,25 @@
+package com.tresw.stock.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.ClusterMember;
+
+/**
+ * This class is the data base access layer for the cluster's instances heartbeats
+ * @author alejandro
+ *
+ */
+@Repository
+public interface ClusterMemberRepository extends JpaRepository<ClusterMember, String> {
+
+	/**
+	 * Counts the instances whose heartbeat has not expired
+	 * @param now current time in ms
+	 * @return number of live instances
+	 */
+	@Query("SELECT COUNT(m) FROM ClusterMember m WHERE m.expires >= :now")
+	public long countLive(@Param("now") long now);
+}
@@ -0,0 +1,32 @@
+package com.tresw.stock.repository;
+
+import java.util.Date;
+
+import javax.transaction.Transactional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.IdempotencyRecord;
+
+/**
+ * This class is the data base access layer for the results of idempotent requests
+ * @author alejandro
+ *
+ */
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+	/**
+	 * Deletes the records created before the given date
+	 * @param limit the oldest creation date to keep
+	 * @return number of records deleted
+	 */
+	@Modifying
+	@Transactional
+	@Query("DELETE FROM IdempotencyRecord r WHERE r.created < :limit")
+	public int deleteCreatedBefore(@Param("limit") Date limit);
+}
@@ -0,0 +1,15 @@
+package com.tresw.stock.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.ProductDirectoryEntry;
+
+/**
+ * This class is the data base access layer for the products directory
+ * @author alejandro
+ *
+ */
+@Repository
+public interface ProductDirectoryRepository extends JpaRepository<ProductDirectoryEntry, String> {
+}
@@ -1,11 +1,17 @@
 package com.tresw.stock.repository;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.tresw.stock.domain.Product;
+import com.tresw.stock.domain.Product.Status;
 
 /**
  * This class is the data base access layer for products
@@ -22,4 +28,73 @@ public interface ProductRepository extends JpaRepository<Product, Integer> {
 	 */
 	@Query("SELECT p FROM Product p WHERE p.serialNo = :serial")
 	public Product findBySerialNo(@Param("serial") String serial);
+
+	/**
+	 * Finds the stock of the product with the serial number
+	 * @param serial the product's serial number
+	 * @return the stock's id, null if the product does not exist
+	 */
+	@Query("SELECT p.stock.id FROM Product p WHERE p.serialNo = :serial")
+	public Integer findStockIdBySerialNo(@Param("serial") String serial);
+
+	/**
+	 * Counts the products of every stock grouped by status, in a single query
+	 * @return list of rows with the stock's id, the status and the number of products
+	 */
+	@Query("SELECT p.stock.id, p.status, COUNT(p) FROM Product p GROUP BY p.stock.id, p.status")
+	public List<Object[]> countByStockAndStatus();
+
+	/**
+	 * Finds the ids of the products with the given status, ordered by id
+	 * @param status the products status
+	 * 		  pageable the page to return
+	 * @return list of products ids
+	 */
+	@Query("SELECT p.id FROM Product p WHERE p.status = :status ORDER BY p.id")
+	public List<Integer> findIdsByStatus(@Param("status") Status status, Pageable pageable);
+
+	/**
+	 * Deletes the given products, in a single statement
+	 * @param ids the products ids
+	 * @return number of products deleted
+	 */
+	@Modifying
+	@Query("DELETE FROM Product p WHERE p.id IN :ids")
+	public int deleteByIds(@Param("ids") List<Integer> ids);
+
+	/**
+	 * Finds the stocks of the products
+	 * @param ids the products ids
+	 * @return the ids of the stocks, without repetitions
+	 */
+	@Query("SELECT DISTINCT p.stock.id FROM Product p WHERE p.id IN :ids")
+	public List<Integer> findStockIdsByIds(@Param("ids") List<Integer> ids);
+
+	/**
+	 * Finds the products with the given serial numbers without loading their stocks
+	 * @param serials the serial numbers
+	 * @return list of rows with the product's id, serial number, status and stock's id
+	 */
+	@Query("SELECT p.id, p.serialNo, p.status, p.stock.id FROM Product p WHERE p.serialNo IN :serials")
+	public List<Object[]> findRowsBySerialNoIn(@Param("serials") Collection<String> serials);
+
+	/**
+	 * Sets the status of the given products, in a single statement without loading them
+	 * @param ids the products ids
+	 * 		  status the new status
+	 * @return number of products updated
+	 */
+	@Modifying
+	@Query("UPDATE Product p SET p.status = :status WHERE p.id IN :ids")
+	public int updateStatus(@Param("ids") Collection<Integer> ids, @Param("status") Status status);
+
+	/**
+	 * Counts the products of the stocks with ids in the range grouped by stock and status, in a single query
+	 * @param from the first stock's id
+	 * 		  to the last stock's id
+	 * @return list of rows with the stock's id, the status and the number of products
+	 */
+	@Query("SELECT p.stock.id, p.status, COUNT(p) FROM Product p WHERE p.stock.id BETWEEN :from AND :to "
+			+ "GROUP BY p.stock.id, p.status")
+	public List<Object[]> countByStockAndStatusBetween(@Param("from") Integer from, @Param("to") Integer to);
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.tresw.stock.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.StockLease;
+
+/**
+ * This class is the data base access layer for the stocks ownership leases. The leases are only taken with
+ * conditional updates, so two instances never own the same partition at the same time.
+ * @author alejandro
+ *
+ */
+@Repository
+public interface StockLeaseRepository extends JpaRepository<StockLease, Integer> {
+
+	/**
+	 * Takes or renews the lease if it is free, expired or already owned by the instance
+	 * @param partition the partition's id
+	 * 		  owner the instance's id
+	 * 		  url the instance's url
+	 * 		  expires new expiration time in ms
+	 * 		  now current time in ms
+	 * @return 1 if the instance owns the lease, 0 if another instance owns it
+	 */
+	@Modifying
+	@Query("UPDATE StockLease l SET l.owner = :owner, l.ownerUrl = :url, l.expires = :expires "
+			+ "WHERE l.partitionId = :partition AND (l.owner = :owner OR l.owner IS NULL OR l.expires < :now)")
+	public int acquire(@Param("partition") int partition, @Param("owner") String owner, @Param("url") String url,
+			@Param("expires") long expires, @Param("now") long now);
+
+	/**
+	 * Frees the lease if it is owned by the instance
+	 * @param partition the partition's id
+	 * 		  owner the instance's id
+	 * @return 1 if the lease was released
+	 */
+	@Modifying
+	@Query("UPDATE StockLease l SET l.owner = NULL, l.ownerUrl = NULL, l.expires = 0 "
+			+ "WHERE l.partitionId = :partition AND l.owner = :owner")
+	public int release(@Param("partition") int partition, @Param("owner") String owner);
+
+	/**
+	 * Checks the instance still owns the lease and locks it until the current transaction ends, used to fence
+	 * the writes of an instance that lost it. No other instance can take the lease before the writes commit.
+	 * @param partition the partition's id
+	 * 		  owner the instance's id
+	 * 		  now current time in ms
+	 * @return 1 if the instance owns the lease
+	 */
+	@Modifying
+	@Query("UPDATE StockLease l SET l.expires = l.expires WHERE l.partitionId = :partition AND l.owner = :owner "
+			+ "AND l.expires >= :now")
+	public int fence(@Param("partition") int partition, @Param("owner") String owner, @Param("now") long now);
+}
@@ -1,6 +1,11 @@
 package com.tresw.stock.repository;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.tresw.stock.domain.Stock;
@@ -13,4 +18,43 @@ import com.tresw.stock.domain.Stock;
 
 @Repository
 public interface StockRepository extends JpaRepository<Stock, Integer> {
+
+	/**
+	 * Finds the ids of all the stocks
+	 * @return list of stocks ids
+	 */
+	@Query("SELECT s.id FROM Stock s")
+	public List<Integer> findAllIds();
+
+	/**
+	 * Sets the quantity and the status counters of the stock, without loading it
+	 * @param id the stock's id
+	 * 		  quantity the available products
+	 * 		  inStock, reserved, sold the number of products with every status
+	 * @return number of stocks updated
+	 */
+	@Modifying
+	@Query("UPDATE Stock s SET s.quantity = :quantity, s.inStock = :inStock, s.reserved = :reserved, "
+			+ "s.sold = :sold WHERE s.id = :id")
+	public int updateCounts(@Param("id") Integer id, @Param("quantity") int quantity,
+			@Param("inStock") int inStock, @Param("reserved") int reserved, @Param("sold") int sold);
+
+	/**
+	 * Finds the quantity and the status counters of the stocks with ids in the range, without loading them, and
+	 * locks the stocks until the end of the transaction
+	 * @param from the first stock's id
+	 * 		  to the last stock's id
+	 * @return list of rows with the stock's id, quantity, in stock, reserved and sold counters
+	 */
+	@Query(value = "SELECT id, quantity, in_stock, reserved, sold FROM stock WHERE id BETWEEN :from AND :to "
+			+ "ORDER BY id FOR UPDATE", nativeQuery = true)
+	public List<Object[]> lockCountsBetween(@Param("from") Integer from, @Param("to") Integer to);
+
+	/**
+	 * Locks the stocks until the end of the transaction, in the order of their ids
+	 * @param ids the stocks ids
+	 * @return the ids of the locked stocks
+	 */
+	@Query(value = "SELECT id FROM stock WHERE id IN :ids ORDER BY id FOR UPDATE", nativeQuery = true)
+	public List<Integer> lockByIds(@Param("ids") List<Integer> ids);
 }
\ No newline at end of file
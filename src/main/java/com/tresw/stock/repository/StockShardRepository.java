@@ -0,0 +1,15 @@
+package com.tresw.stock.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.tresw.stock.domain.StockShard;
+
+/**
+ * This class is the data base access layer for the stocks shard directory
+ * @author alejandro
+ *
+ */
+@Repository
+public interface StockShardRepository extends JpaRepository<StockShard, Integer> {
+}
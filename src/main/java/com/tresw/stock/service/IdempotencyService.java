@@ -0,0 +1,200 @@
+package com.tresw.stock.service;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.tresw.stock.domain.IdempotencyRecord;
+import com.tresw.stock.repository.IdempotencyRecordRepository;
+
+/**
+ * Runs the requests sent with an idempotency key at most once. The result of the first request, its response
+ * or the exception it threw, is replayed to the retries with the same key without running the request again.
+ * 
+ * The keys are scoped by client, two clients sending the same key do not share its result.
+ * 
+ * The results are kept in memory, bounded by size and evicted after a time to live. Optionally their status
+ * is also saved in the data base so the retries are recognized after a restart. A retry replayed from the data
+ * base gets the status only, without the response's body. A result that can not be saved is still replayed
+ * from memory.
+ * @author alejandro
+ *
+ */
+@Service
+public class IdempotencyService {
+
+	private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+	@Autowired
+	private IdempotencyRecordRepository idempotencyRecordRepository;
+
+	@Value("${stock.idempotency.max-entries:10000}")
+	private int maxEntries;
+
+	@Value("${stock.idempotency.ttl:3600000}")
+	private long ttl;
+
+	@Value("${stock.idempotency.persist:false}")
+	private boolean persist;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+	/**
+	 * Runs the request, or replays the result of the first request sent by the client with the same key
+	 * @param client identifies the client sending the request
+	 * 		  idempotencyKey the idempotency key sent by the client, if null the request is just run
+	 * 		  fingerprint identifies the request, the same key can not be used for another request
+	 * 		  request the request to run
+	 * @return the request's response, only its status if it is replayed from the data base
+	 * @throws IdempotencyKeyReusedException if the key was used for a different request
+	 */
+	public ResponseEntity<?> execute(String client, String idempotencyKey, String fingerprint,
+			Supplier<ResponseEntity<?>> request) {
+		if (idempotencyKey == null) {
+			return request.get();
+		}
+		String key = client + " " + idempotencyKey;
+		Entry entry = new Entry(fingerprint, System.currentTimeMillis());
+		Entry existing = putIfAbsent(key, entry);
+		if (existing != null) {
+			return replay(existing, fingerprint);
+		}
+		if (persist) {
+			IdempotencyRecord record = idempotencyRecordRepository.findOne(key);
+			if (record != null) {
+				if (!record.getFingerprint().equals(fingerprint)) {
+					RuntimeException e = new IdempotencyKeyReusedException();
+					entry.result.completeExceptionally(e);
+					throw e;
+				}
+				ResponseEntity<?> response = new ResponseEntity<>(HttpStatus.valueOf(record.getStatus()));
+				entry.result.complete(response);
+				return response;
+			}
+		}
+		ResponseEntity<?> response;
+		try {
+			response = request.get();
+		} catch (RuntimeException | Error e) {
+			ResponseStatus status = AnnotationUtils.findAnnotation(e.getClass(), ResponseStatus.class);
+			if (status == null) {
+				remove(key, entry); //unexpected errors are not replayed, the retry runs the request again
+			}
+			entry.result.completeExceptionally(e);
+			if (status != null) {
+				save(key, fingerprint, status.code());
+			}
+			throw e;
+		}
+		entry.result.complete(response);
+		save(key, fingerprint, response.getStatusCode());
+		return response;
+	}
+
+	/**
+	 * Deletes the saved results older than the time to live
+	 */
+	@Scheduled(fixedDelayString = "${stock.idempotency.cleanup-delay:60000}")
+	public void cleanUp() {
+		long limit = System.currentTimeMillis() - ttl;
+		synchronized (entries) {
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext() && it.next().created < limit) {
+				it.remove();
+			}
+		}
+		if (persist) {
+			idempotencyRecordRepository.deleteCreatedBefore(new Date(limit));
+		}
+	}
+
+	private Entry putIfAbsent(String key, Entry entry) {
+		synchronized (entries) {
+			Entry existing = entries.get(key);
+			if (existing != null && existing.created >= entry.created - ttl) {
+				return existing;
+			}
+			entries.remove(key);
+			entries.put(key, entry);
+			Iterator<Entry> it = entries.values().iterator();
+			while (entries.size() > maxEntries) {
+				it.next();
+				it.remove();
+			}
+			return null;
+		}
+	}
+
+	private void remove(String key, Entry entry) {
+		synchronized (entries) {
+			entries.remove(key, entry);
+		}
+	}
+
+	/**
+	 * Saves the status of a result in the data base. A failure is only logged, the request already ran and its
+	 * result is replayed from memory.
+	 */
+	private void save(String key, String fingerprint, HttpStatus status) {
+		if (!persist) {
+			return;
+		}
+		IdempotencyRecord record = new IdempotencyRecord();
+		record.setKey(key);
+		record.setFingerprint(fingerprint);
+		record.setStatus(status.value());
+		record.setCreated(new Date());
+		try {
+			idempotencyRecordRepository.save(record);
+		} catch (RuntimeException e) {
+			log.warn("Could not save the result of the idempotency key {}", key, e);
+		}
+	}
+
+	private static ResponseEntity<?> replay(Entry entry, String fingerprint) {
+		if (!entry.fingerprint.equals(fingerprint)) {
+			throw new IdempotencyKeyReusedException();
+		}
+		try {
+			return entry.result.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	private static class Entry {
+
+		private final String fingerprint;
+		private final long created;
+		private final CompletableFuture<ResponseEntity<?>> result;
+
+		Entry(String fingerprint, long created) {
+			this.fingerprint = fingerprint;
+			this.created = created;
+			this.result = new CompletableFuture<>();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+	static class IdempotencyKeyReusedException extends RuntimeException {
+	}
+}
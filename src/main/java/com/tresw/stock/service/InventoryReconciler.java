@@ -0,0 +1,366 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.domain.ReconciliationReport;
+import com.tresw.stock.domain.ReconciliationReport.Correction;
+import com.tresw.stock.domain.ReconciliationReport.State;
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockSummary;
+import com.tresw.stock.repository.ArchivedProductRepository;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.service.StockService.StockNotOwnedException;
+import com.tresw.stock.shard.ShardContext;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * Background job reconciling the quantity and the status counters of every stock with its products. The ids
+ * of the stocks of every shard are split in ranges verified in parallel in a fork/join pool, every range in its
+ * own transaction locking its stocks before counting their products with grouped queries, so the sales and the
+ * archive of the range wait for its repairs, saved in a batch. In cluster mode every instance only reconciles
+ * the stocks it owns, repaired through the owned stocks cache once the range is unlocked, and a stock is only
+ * repaired if it has not changed since it was read, otherwise it is left for the next run.
+ * @author alejandro
+ *
+ */
+@Component
+public class InventoryReconciler {
+
+	private static final Logger log = LoggerFactory.getLogger(InventoryReconciler.class);
+
+	private static final String REPAIR = "UPDATE stock SET quantity = ?, in_stock = ?, reserved = ?, sold = ? "
+			+ "WHERE id = ? AND quantity = ? AND in_stock = ? AND reserved = ? AND sold = ?";
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ArchivedProductRepository archivedProductRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired(required = false)
+	private LeaseManager leaseManager;
+
+	@Autowired(required = false)
+	private OwnedStockCache ownedStockCache;
+
+	@Autowired
+	private VersionStamps versionStamps;
+
+	@Value("${stock.reconcile.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.reconcile.parallelism:4}")
+	private int parallelism;
+
+	@Value("${stock.reconcile.chunk-size:1000}")
+	private int chunkSize;
+
+	@Value("${stock.reconcile.max-reported:100}")
+	private int maxReported;
+
+	private TransactionTemplate transaction;
+
+	private ExecutorService runner;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private volatile Run current;
+
+	private volatile ReconciliationReport last = new ReconciliationReport();
+
+	@PostConstruct
+	public void init() {
+		transaction = new TransactionTemplate(transactionManager);
+		runner = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "stock-reconciler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() {
+		runner.shutdownNow();
+	}
+
+	/**
+	 * Starts a reconciliation in the background on schedule
+	 */
+	@Scheduled(initialDelayString = "${stock.reconcile.delay:86400000}", fixedDelayString = "${stock.reconcile.delay:86400000}")
+	public void scheduled() {
+		if (enabled) {
+			start();
+		}
+	}
+
+	/**
+	 * Starts a reconciliation in the background unless one is already running
+	 * @return true if it was started, false if one was already running
+	 */
+	public boolean start() {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		Run run = new Run();
+		current = run;
+		runner.execute(() -> execute(run));
+		return true;
+	}
+
+	/**
+	 * Reconciles all the stocks in the calling thread, waiting for a running reconciliation to finish
+	 * @return the report of the reconciliation
+	 */
+	public ReconciliationReport reconcile() {
+		while (!running.compareAndSet(false, true)) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return getReport();
+			}
+		}
+		Run run = new Run();
+		current = run;
+		execute(run);
+		return last;
+	}
+
+	/**
+	 * @return the progress of the running reconciliation, or the result of the last one
+	 */
+	public ReconciliationReport getReport() {
+		Run run = current;
+		return run != null ? run.report(State.RUNNING) : last;
+	}
+
+	private void execute(Run run) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			shardRouter.eachShard(() -> {
+				int shard = ShardContext.current() == null ? ShardRouter.DIRECTORY_SHARD : ShardContext.current();
+				List<Integer> ids = new ArrayList<>(stockRepository.findAllIds());
+				Collections.sort(ids);
+				run.stocksTotal.add(ids.size());
+				pool.invoke(new Verify(run, shard, ids, 0, ids.size()));
+				return null;
+			});
+			last = run.report(State.COMPLETED);
+			log.info("Reconciled {} stocks, {} corrected", last.getStocksChecked(), last.getCorrected());
+		} catch (RuntimeException e) {
+			log.error("Reconciliation failed", e);
+			ReconciliationReport report = run.report(State.FAILED);
+			report.setError(e.toString());
+			last = report;
+		} finally {
+			pool.shutdown();
+			current = null;
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Verifies the stocks in a range of the sorted ids, splitting it in halves until it is small enough
+	 */
+	private class Verify extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Run run;
+		private final int shard;
+		private final List<Integer> ids;
+		private final int from;
+		private final int to;
+
+		Verify(Run run, int shard, List<Integer> ids, int from, int to) {
+			this.run = run;
+			this.shard = shard;
+			this.ids = ids;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > chunkSize) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Verify(run, shard, ids, from, middle), new Verify(run, shard, ids, middle, to));
+			} else if (from < to) {
+				ShardContext.call(shard, () -> {
+					List<Correction> owned = transaction.execute(status -> verify(run, ids.get(from), ids.get(to - 1)));
+					owned.forEach(correction -> repairOwned(run, correction));
+					return null;
+				});
+			}
+		}
+	}
+
+	/**
+	 * Verifies the stocks in the range, locked until the end of the transaction
+	 * @return the corrections of the stocks owned by this instance in cluster mode, to be saved once unlocked
+	 */
+	private List<Correction> verify(Run run, int first, int lastId) {
+		List<Object[]> rows = stockRepository.lockCountsBetween(first, lastId);
+		Map<Integer, Stock> counts = new HashMap<>();
+		run.productsCounted.add(addCounts(counts, productRepository.countByStockAndStatusBetween(first, lastId)));
+		run.productsCounted.add(addCounts(counts, archivedProductRepository.countByStockAndStatusBetween(first, lastId)));
+		List<Correction> corrections = new ArrayList<>();
+		for (Object[] row : rows) {
+			Stock found = new Stock();
+			found.setId(((Number) row[0]).intValue());
+			found.setQuantity(((Number) row[1]).intValue());
+			found.setInStock(((Number) row[2]).intValue());
+			found.setReserved(((Number) row[3]).intValue());
+			found.setSold(((Number) row[4]).intValue());
+			if (ownedStockCache != null && !leaseManager.owns(found.getId())) {
+				run.skipped.increment(); //reconciled by its owner, whose pending writes would overwrite the repair
+				continue;
+			}
+			run.stocksChecked.increment();
+			Stock expected = counts.containsKey(found.getId()) ? counts.get(found.getId()) : new Stock();
+			expected.setId(found.getId());
+			expected.setQuantity(expected.getInStock()); //the quantity is the number of products available
+			if (found.getQuantity() != expected.getQuantity() || found.getInStock() != expected.getInStock()
+					|| found.getReserved() != expected.getReserved() || found.getSold() != expected.getSold()) {
+				corrections.add(new Correction(new StockSummary(found), new StockSummary(expected)));
+			}
+		}
+		if (ownedStockCache != null || corrections.isEmpty()) {
+			return corrections;
+		}
+		List<Object[]> repairs = new ArrayList<>();
+		for (Correction correction : corrections) {
+			repairs.add(repair(correction));
+		}
+		int[] updated = jdbcTemplate.batchUpdate(REPAIR, repairs);
+		for (int i = 0; i < updated.length; i++) {
+			saved(run, corrections.get(i), updated[i]);
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Saves the correction of a stock owned by this instance once its pending writes are persisted
+	 */
+	private void repairOwned(Run run, Correction correction) {
+		try {
+			int updated = ownedStockCache.exclusive(correction.getFound().getStockId(),
+					() -> jdbcTemplate.update(REPAIR, repair(correction)));
+			saved(run, correction, updated);
+		} catch (StockNotOwnedException e) {
+			run.skipped.increment();
+		}
+	}
+
+	private void saved(Run run, Correction correction, int updated) {
+		if (updated == 0) {
+			run.changedConcurrently.increment();
+		} else {
+			run.corrected.increment();
+			run.addCorrection(correction);
+			versionStamps.touchStock(correction.getFound().getStockId());
+		}
+	}
+
+	private static Object[] repair(Correction correction) {
+		StockSummary found = correction.getFound();
+		StockSummary saved = correction.getSaved();
+		return new Object[] { saved.getQuantity(), saved.getInStock(), saved.getReserved(), saved.getSold(),
+				found.getStockId(), found.getQuantity(), found.getInStock(), found.getReserved(), found.getSold() };
+	}
+
+	private static long addCounts(Map<Integer, Stock> counts, List<Object[]> rows) {
+		long products = 0;
+		for (Object[] row : rows) {
+			Stock count = counts.get(row[0]);
+			if (count == null) {
+				count = new Stock();
+				counts.put((Integer) row[0], count);
+			}
+			int number = ((Long) row[2]).intValue();
+			count.addCount((Status) row[1], number);
+			products += number;
+		}
+		return products;
+	}
+
+	/**
+	 * Progress of a reconciliation, updated concurrently by the fork/join tasks
+	 */
+	private class Run {
+
+		private final Date started = new Date();
+		private final LongAdder stocksTotal = new LongAdder();
+		private final LongAdder stocksChecked = new LongAdder();
+		private final LongAdder productsCounted = new LongAdder();
+		private final LongAdder corrected = new LongAdder();
+		private final LongAdder changedConcurrently = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final List<Correction> corrections = new ArrayList<>();
+
+		private synchronized void addCorrection(Correction correction) {
+			if (corrections.size() < maxReported) {
+				corrections.add(correction);
+			}
+		}
+
+		private synchronized ReconciliationReport report(State state) {
+			ReconciliationReport report = new ReconciliationReport();
+			report.setState(state);
+			report.setStarted(started);
+			Date now = new Date();
+			if (state != State.RUNNING) {
+				report.setFinished(now);
+			}
+			report.setStocksTotal(stocksTotal.sum());
+			report.setStocksChecked(stocksChecked.sum());
+			report.setProductsCounted(productsCounted.sum());
+			long elapsed = Math.max(1, now.getTime() - started.getTime());
+			report.setProductsPerSecond(report.getProductsCounted() * 1000 / elapsed);
+			report.setCorrected(corrected.sum());
+			report.setChangedConcurrently(changedConcurrently.sum());
+			report.setSkipped(skipped.sum());
+			report.setCorrections(new ArrayList<>(corrections));
+			return report;
+		}
+	}
+}
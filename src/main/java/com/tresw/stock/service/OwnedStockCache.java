@@ -0,0 +1,418 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.domain.Product;
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.service.StockService.ProductNotAvailableException;
+import com.tresw.stock.service.StockService.StockNotFoundException;
+import com.tresw.stock.service.StockService.StockNotOwnedException;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * Keeps in memory the stocks owned by this instance, with their products, so the sell, reserve and unreserve
+ * operations are validated and applied without reading the data base. The changes are queued and a single
+ * thread persists them in batches, one transaction per batch with one update per stock and status. An
+ * operation returns once its batch is committed, so nothing is acknowledged before it is persisted.
+ * 
+ * A stock is evicted when its lease is released or lost and when it is modified out of the cache, it is
+ * loaded again the next time it is used.
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+public class OwnedStockCache implements PublicMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(OwnedStockCache.class);
+
+	private static final int LOCK_STRIPES = 1024;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${stock.cluster.flush-delay:2}")
+	private long flushDelay;
+
+	@Value("${stock.cluster.max-batch:1000}")
+	private int maxBatch;
+
+	private LeaseManager leaseManager;
+
+	private TransactionTemplate transaction;
+
+	private TransactionTemplate readTransaction;
+
+	private TransactionTemplate workTransaction;
+
+	private final ConcurrentMap<Integer, OwnedStock> stocks = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Integer> serialStocks = new ConcurrentHashMap<>();
+
+	private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+	private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+
+	private final LongAdder writes = new LongAdder();
+
+	private final LongAdder batches = new LongAdder();
+
+	private Thread flusher;
+
+	private volatile boolean running = true;
+
+	@PostConstruct
+	public void init() {
+		transaction = new TransactionTemplate(transactionManager);
+		workTransaction = new TransactionTemplate(transactionManager);
+		workTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		readTransaction = new TransactionTemplate(transactionManager);
+		readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		readTransaction.setReadOnly(true);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		flusher = new Thread(this::flushLoop, "owned-stock-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Stops the flusher once the queued writes are persisted
+	 */
+	@PreDestroy
+	public void destroy() throws InterruptedException {
+		running = false;
+		flusher.join(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	public void setLeaseManager(LeaseManager leaseManager) {
+		this.leaseManager = leaseManager;
+	}
+
+	/**
+	 * Applies an operation to a product of an owned stock and waits until it is persisted
+	 * @param serial the product's serial number
+	 * 		  finder finds the product in the data base, only used if the serial is not cached
+	 * 		  operation validates and changes the product's status and its stock's counters
+	 * @throws StockNotOwnedException if the product's stock is not owned by this instance
+	 * 		   ProductNotAvailableException if the product is archived
+	 */
+	public void apply(String serial, Supplier<Product> finder, Consumer<Product> operation) {
+		Integer stockId = serialStocks.get(serial);
+		if (stockId == null) {
+			stockId = finder.get().getStock().getId();
+		}
+		CompletableFuture<Void> persisted;
+		Lock lock = lock(stockId);
+		lock.lock();
+		try {
+			OwnedStock owned = load(stockId);
+			Product product = owned.products.get(serial);
+			if (product == null) {
+				throw new ProductNotAvailableException(); //only the sold products are archived
+			}
+			operation.accept(product);
+			persisted = enqueue(owned, product);
+		} finally {
+			lock.unlock();
+		}
+		await(persisted);
+	}
+
+	/**
+	 * Runs work modifying the stock in the data base, once the stock's pending writes are persisted. The work
+	 * runs in its own transaction, committed before the next change of the stock, and the stock is evicted so
+	 * it is loaded again with the changes.
+	 * @param stockId the stock's id
+	 * 		  work the work to run
+	 * @return the work's result
+	 * @throws StockNotOwnedException if the stock is not owned by this instance
+	 */
+	public <T> T exclusive(int stockId, Supplier<T> work) {
+		Lock lock = lock(stockId);
+		lock.lock();
+		try {
+			if (!leaseManager.owns(stockId)) {
+				throw new StockNotOwnedException();
+			}
+			remove(stockId);
+			entityManager.clear(); //the request's session may hold copies read before the lock
+			return workTransaction.execute(status -> work.get());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts the stocks of the partition once their pending writes are persisted
+	 * @param partition the partition's id
+	 */
+	public void evict(int partition) {
+		for (Integer stockId : new ArrayList<>(stocks.keySet())) {
+			if (leaseManager.partitionOf(stockId) == partition) {
+				Lock lock = lock(stockId);
+				lock.lock();
+				try {
+					remove(stockId);
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>("cluster.writes", writes.sum()));
+		metrics.add(new Metric<Long>("cluster.batches", batches.sum()));
+		metrics.add(new Metric<Integer>("cluster.stocks.cached", stocks.size()));
+		metrics.add(new Metric<Integer>("cluster.partitions.owned", leaseManager.getOwnedPartitions().size()));
+		return metrics;
+	}
+
+	private OwnedStock load(int stockId) {
+		if (!leaseManager.owns(stockId)) {
+			throw new StockNotOwnedException();
+		}
+		OwnedStock owned = stocks.get(stockId);
+		if (owned == null) {
+			entityManager.clear(); //the request's session may hold copies read before the lock
+			Stock stock = shardRouter.onStock(stockId, () -> readTransaction.execute(status -> {
+				Stock found = stockRepository.findOne(stockId);
+				if (found == null) {
+					throw new StockNotFoundException();
+				}
+				Hibernate.initialize(found.getProducts());
+				return found;
+			}));
+			owned = new OwnedStock(stock);
+			for (String serial : owned.products.keySet()) {
+				serialStocks.put(serial, stockId);
+			}
+			stocks.put(stockId, owned);
+		}
+		return owned;
+	}
+
+	private void remove(int stockId) {
+		OwnedStock owned = stocks.remove(stockId);
+		if (owned != null) {
+			for (String serial : owned.products.keySet()) {
+				serialStocks.remove(serial, stockId);
+			}
+			try {
+				owned.lastWrite.join();
+			} catch (CompletionException e) {
+				//the stock is reloaded anyway
+			}
+		}
+	}
+
+	private CompletableFuture<Void> enqueue(OwnedStock owned, Product product) {
+		Stock stock = owned.stock;
+		Write write = new Write(owned, product.getId(), product.getStatus(), stock.getQuantity(),
+				stock.getInStock(), stock.getReserved(), stock.getSold());
+		owned.lastWrite = write.persisted;
+		queue.add(write);
+		writes.increment();
+		return write.persisted;
+	}
+
+	private void flushLoop() {
+		while (running || !queue.isEmpty()) {
+			try {
+				Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				if (flushDelay > 0) {
+					Thread.sleep(flushDelay); //lets more writes join the batch
+				}
+				List<Write> batch = new ArrayList<>();
+				batch.add(first);
+				queue.drainTo(batch, maxBatch - 1);
+				flush(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void flush(List<Write> batch) {
+		Map<Integer, List<Write>> byStock = new LinkedHashMap<>();
+		List<Integer> partitions = new ArrayList<>();
+		List<Write> valid = new ArrayList<>();
+		for (Write write : batch) {
+			if (write.owned.failed) {
+				//based on a change that could not be persisted
+				write.persisted.completeExceptionally(new StockNotOwnedException());
+				continue;
+			}
+			valid.add(write);
+			byStock.computeIfAbsent(write.stockId, id -> new ArrayList<>()).add(write);
+			partitions.add(leaseManager.partitionOf(write.stockId));
+		}
+		if (valid.isEmpty()) {
+			return;
+		}
+		try {
+			transaction.execute(status -> {
+				//fences the writes of an instance that lost its leases without noticing
+				if (!leaseManager.ownsInStore(partitions)) {
+					throw new StockNotOwnedException();
+				}
+				for (Map.Entry<Integer, List<Write>> stock : byStock.entrySet()) {
+					shardRouter.onStock(stock.getKey(), () -> persist(stock.getValue()));
+				}
+				return null;
+			});
+			batches.increment();
+			for (Write write : valid) {
+				write.persisted.complete(null);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Could not persist {} writes of {} stocks", valid.size(), byStock.size(), e);
+			for (Write write : valid) {
+				//the memory is ahead of the data base, the stock is loaded again and the later writes rejected
+				write.owned.failed = true;
+				stocks.remove(write.stockId, write.owned);
+				write.persisted.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Persists the writes of a stock, the last status of every product and the stock's last counters
+	 */
+	private Void persist(List<Write> writes) {
+		Map<Integer, Status> statuses = new HashMap<>();
+		for (Write write : writes) {
+			statuses.put(write.productId, write.status);
+		}
+		Map<Status, List<Integer>> byStatus = new HashMap<>();
+		for (Map.Entry<Integer, Status> product : statuses.entrySet()) {
+			byStatus.computeIfAbsent(product.getValue(), status -> new ArrayList<>()).add(product.getKey());
+		}
+		for (Map.Entry<Status, List<Integer>> status : byStatus.entrySet()) {
+			productRepository.updateStatus(status.getValue(), status.getKey());
+		}
+		Write last = writes.get(writes.size() - 1);
+		stockRepository.updateCounts(last.stockId, last.quantity, last.inStock, last.reserved, last.sold);
+		return null;
+	}
+
+	private static void await(CompletableFuture<Void> persisted) {
+		try {
+			persisted.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private Lock lock(int stockId) {
+		return locks[Math.floorMod(stockId, LOCK_STRIPES)];
+	}
+
+	/**
+	 * A stock loaded in memory, with its products by serial number
+	 */
+	private static class OwnedStock {
+
+		private final Stock stock;
+		private final Map<String, Product> products = new HashMap<>();
+		private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+		private volatile boolean failed;
+
+		private OwnedStock(Stock stock) {
+			this.stock = stock;
+			for (Product product : stock.getProducts()) {
+				products.put(product.getSerialNo(), product);
+			}
+		}
+	}
+
+	/**
+	 * The state of a product and its stock after an operation
+	 */
+	private static class Write {
+
+		private final OwnedStock owned;
+		private final int stockId;
+		private final int productId;
+		private final Status status;
+		private final int quantity;
+		private final int inStock;
+		private final int reserved;
+		private final int sold;
+		private final CompletableFuture<Void> persisted = new CompletableFuture<>();
+
+		private Write(OwnedStock owned, int productId, Status status, int quantity, int inStock, int reserved,
+				int sold) {
+			this.owned = owned;
+			this.stockId = owned.stock.getId();
+			this.productId = productId;
+			this.status = status;
+			this.quantity = quantity;
+			this.inStock = inStock;
+			this.reserved = reserved;
+			this.sold = sold;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.tresw.stock.service;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.repository.ArchivedProductRepository;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * Background job moving the sold products to the archive table in batches, every batch in its own
+ * transaction. Sold is a final status so the moved products are never modified again. The stocks of a batch are
+ * locked while their products are moved, so the reconciliation never counts them twice or misses them.
+ * @author alejandro
+ *
+ */
+@Component
+public class ProductArchiver {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductArchiver.class);
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ArchivedProductRepository archivedProductRepository;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired(required = false)
+	private LeaseManager leaseManager;
+
+	@Autowired
+	private VersionStamps versionStamps;
+
+	@Value("${stock.archive.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.archive.batch-size:1000}")
+	private int batchSize;
+
+	private TransactionTemplate transaction;
+
+	@PostConstruct
+	public void init() {
+		transaction = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Archives the sold products on schedule, in cluster mode only on the leader
+	 */
+	@Scheduled(initialDelayString = "${stock.archive.delay:60000}", fixedDelayString = "${stock.archive.delay:60000}")
+	public void scheduled() {
+		if (enabled && (leaseManager == null || leaseManager.isLeader())) {
+			archiveSold();
+		}
+	}
+
+	/**
+	 * Moves all the sold products of every shard to the shard's archive
+	 * @return number of products archived
+	 */
+	public int archiveSold() {
+		int total = 0;
+		for (int archived : shardRouter.eachShard(this::archiveShard)) {
+			total += archived;
+		}
+		if (total > 0) {
+			log.info("Archived {} sold products", total);
+		}
+		return total;
+	}
+
+	private int archiveShard() {
+		int total = 0;
+		int moved;
+		do {
+			moved = transaction.execute(status -> archiveBatch());
+			total += moved;
+		} while (moved == batchSize);
+		return total;
+	}
+
+	private int archiveBatch() {
+		List<Integer> ids = productRepository.findIdsByStatus(Status.SOLD, new PageRequest(0, batchSize));
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		List<Integer> stockIds = productRepository.findStockIdsByIds(ids);
+		stockRepository.lockByIds(stockIds);
+		if (versionStamps.isEnabled()) {
+			//the archived products are no longer listed with their stocks
+			stockIds.forEach(versionStamps::touchStock);
+		}
+		archivedProductRepository.archive(ids);
+		productRepository.deleteByIds(ids);
+		return ids.size();
+	}
+}
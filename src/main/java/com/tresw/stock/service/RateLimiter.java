@@ -0,0 +1,109 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control for the requests that modify the stock. Every client and every stock has its own
+ * token bucket, a request is admitted only if both of them have a token left. The client's bucket is checked
+ * first, so the stock of a rejected client is not even looked up, and its token is given back if the stock's
+ * bucket rejects the request. The counters are published in the actuator's metrics.
+ * @author alejandro
+ *
+ */
+@Component
+public class RateLimiter implements PublicMetrics {
+
+	private final ConcurrentMap<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, TokenBucket> stockBuckets = new ConcurrentHashMap<>();
+	private final LongAdder allowed = new LongAdder();
+	private final LongAdder rejectedClient = new LongAdder();
+	private final LongAdder rejectedStock = new LongAdder();
+
+	@Value("${stock.ratelimit.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.ratelimit.client.rate:50}")
+	private double clientRate;
+
+	@Value("${stock.ratelimit.client.burst:100}")
+	private int clientBurst;
+
+	@Value("${stock.ratelimit.stock.rate:200}")
+	private double stockRate;
+
+	@Value("${stock.ratelimit.stock.burst:400}")
+	private int stockBurst;
+
+	/**
+	 * Checks whether a request is admitted
+	 * @param client the key identifying the client
+	 * 		   stock finds the key identifying the stock the request modifies, only called once the client is
+	 * 		   admitted. It returns null if the request is only limited per client
+	 * @return true if the request can go on, false if it has to be rejected
+	 */
+	public boolean tryAcquire(String client, Supplier<String> stock) {
+		if (!enabled) {
+			return true;
+		}
+		long now = System.nanoTime();
+		TokenBucket clientBucket = bucket(clientBuckets, client, clientRate, clientBurst, now);
+		if (!clientBucket.tryAcquire(now)) {
+			rejectedClient.increment();
+			return false;
+		}
+		String stockKey = stock.get();
+		if (stockKey != null && !bucket(stockBuckets, stockKey, stockRate, stockBurst, now).tryAcquire(now)) {
+			clientBucket.release();
+			rejectedStock.increment();
+			return false;
+		}
+		allowed.increment();
+		return true;
+	}
+
+	/**
+	 * Discards the buckets that are full again, they behave exactly as a new one
+	 */
+	@Scheduled(fixedDelayString = "${stock.ratelimit.cleanup-delay:60000}")
+	public void cleanUp() {
+		long now = System.nanoTime();
+		clientBuckets.values().removeIf(bucket -> bucket.isFull(now));
+		stockBuckets.values().removeIf(bucket -> bucket.isFull(now));
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>("ratelimit.allowed", allowed.sum()));
+		metrics.add(new Metric<Long>("ratelimit.rejected.client", rejectedClient.sum()));
+		metrics.add(new Metric<Long>("ratelimit.rejected.stock", rejectedStock.sum()));
+		metrics.add(new Metric<Integer>("ratelimit.buckets.client", clientBuckets.size()));
+		metrics.add(new Metric<Integer>("ratelimit.buckets.stock", stockBuckets.size()));
+		return metrics;
+	}
+
+	private static TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String key, double rate, int burst,
+			long now) {
+		TokenBucket bucket = buckets.get(key);
+		if (bucket == null) {
+			TokenBucket created = new TokenBucket(rate, burst, now);
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+}
@@ -0,0 +1,157 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.domain.StockVelocity;
+
+/**
+ * Rolling counts of the products of every stock moved to each status, kept in memory with a lock free window per
+ * stock, so the sales velocity and the hottest stocks are answered without touching the data base. Counting a
+ * transition does not allocate once the stock has its window. Only the transitions applied by this instance since
+ * it started are counted, so it is disabled in cluster mode.
+ * @author alejandro
+ *
+ */
+@Component
+public class SalesVelocity {
+
+	private static final int TYPES = Status.values().length;
+
+	@Value("${stock.velocity.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.cluster.enabled:false}")
+	private boolean cluster;
+
+	private final ConcurrentMap<Integer, SalesWindow> windows = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		enabled = enabled && !cluster;
+	}
+
+	/**
+	 * @return true if the transitions are counted
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Counts a product of the stock moved to the status
+	 * @param stockId the stock's id
+	 * 		  status the product's new status
+	 */
+	public void record(Integer stockId, Status status) {
+		if (!enabled || stockId == null || status == null) {
+			return;
+		}
+		long now = now();
+		while (true) {
+			SalesWindow window = windows.get(stockId);
+			if (window == null) {
+				SalesWindow created = new SalesWindow(TYPES);
+				window = windows.putIfAbsent(stockId, created);
+				if (window == null) {
+					window = created;
+				}
+			}
+			if (window.acquire()) {
+				window.record(status.ordinal(), now);
+				window.release();
+				return;
+			}
+			Thread.yield(); //retired by the sweep, it is counted in a new window once the retired one is discarded
+		}
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return the products of the stock sold and reserved in the last minute and hour, with the sales of every
+	 * 		   second and minute
+	 */
+	public StockVelocity velocity(int stockId) {
+		long now = now();
+		SalesWindow window = windows.get(stockId);
+		StockVelocity velocity = velocity(stockId, window, now);
+		int sold = Status.SOLD.ordinal();
+		velocity.setSoldPerSecond(window == null ? new int[SalesWindow.SLOTS] : window.perSecond(sold, now));
+		velocity.setSoldPerMinute(window == null ? new int[SalesWindow.SLOTS] : window.perMinute(sold, now));
+		return velocity;
+	}
+
+	/**
+	 * @param count number of stocks to return
+	 * 		  lastHour true to rank the sales of the last hour, false the sales of the last minute
+	 * @return the stocks with the most products sold in the window, the hottest first, without the ones with no sales
+	 */
+	public List<StockVelocity> hottest(int count, boolean lastHour) {
+		if (count <= 0) {
+			return Collections.emptyList();
+		}
+		long now = now();
+		int sold = Status.SOLD.ordinal();
+		ToLongFunction<StockVelocity> sales = lastHour ? StockVelocity::getSoldLastHour
+				: StockVelocity::getSoldLastMinute;
+		Comparator<StockVelocity> bySales = Comparator.comparingLong(sales);
+		PriorityQueue<StockVelocity> top = new PriorityQueue<>(bySales);
+		for (Map.Entry<Integer, SalesWindow> entry : windows.entrySet()) {
+			SalesWindow window = entry.getValue();
+			long windowSales = lastHour ? window.lastHour(sold, now) : window.lastMinute(sold, now);
+			if (windowSales == 0 || (top.size() == count && windowSales <= sales.applyAsLong(top.peek()))) {
+				continue;
+			}
+			top.add(velocity(entry.getKey(), window, now));
+			if (top.size() > count) {
+				top.poll();
+			}
+		}
+		List<StockVelocity> hottest = new ArrayList<>(top);
+		Collections.sort(hottest, bySales.reversed());
+		return hottest;
+	}
+
+	/**
+	 * Discards the windows of the stocks with no transitions in the last hour, they count exactly as a new one. A
+	 * window is retired before it is discarded, so a transition is never counted in a discarded window.
+	 */
+	@Scheduled(fixedDelayString = "${stock.velocity.sweep-delay:300000}")
+	public void sweep() {
+		long now = now();
+		for (Map.Entry<Integer, SalesWindow> entry : windows.entrySet()) {
+			if (entry.getValue().retire(now)) {
+				windows.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static StockVelocity velocity(Integer stockId, SalesWindow window, long now) {
+		StockVelocity velocity = new StockVelocity(stockId);
+		if (window != null) {
+			velocity.setSoldLastMinute(window.lastMinute(Status.SOLD.ordinal(), now));
+			velocity.setSoldLastHour(window.lastHour(Status.SOLD.ordinal(), now));
+			velocity.setReservedLastMinute(window.lastMinute(Status.RESERVED.ordinal(), now));
+			velocity.setReservedLastHour(window.lastHour(Status.RESERVED.ordinal(), now));
+		}
+		return velocity;
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+}
@@ -0,0 +1,170 @@
+package com.tresw.stock.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free rolling counters of the products of a stock moved to every status, per second over the last minute
+ * and per minute over the last hour. Every counter is a slot of a ring holding the second or minute it counts in
+ * its high bits and the count in the low ones, so a slot left from a previous lap is reset and incremented with
+ * a single compare and set, without allocating. The events are recorded between {@link #acquire()} and
+ * {@link #release()}, so the window is only retired when no event is being recorded in it.
+ * @author alejandro
+ *
+ */
+class SalesWindow {
+
+	static final int SLOTS = 60;
+
+	private static final int COUNT_BITS = 24;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private static final int RETIRED = -1;
+
+	private final int types;
+	private final AtomicLongArray seconds;
+	private final AtomicLongArray minutes;
+	private final AtomicInteger recording = new AtomicInteger();
+
+	/**
+	 * @param types number of kinds of events counted, as the product statuses
+	 */
+	SalesWindow(int types) {
+		this.types = types;
+		this.seconds = new AtomicLongArray(types * SLOTS);
+		this.minutes = new AtomicLongArray(types * SLOTS);
+	}
+
+	/**
+	 * Starts recording events, to be ended with {@link #release()}
+	 * @return false if the window was retired, the events have to be counted in a new one
+	 */
+	boolean acquire() {
+		while (true) {
+			int current = recording.get();
+			if (current == RETIRED) {
+				return false;
+			}
+			if (recording.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Ends recording events
+	 */
+	void release() {
+		recording.decrementAndGet();
+	}
+
+	/**
+	 * Retires the window if it had no events in the last hour and no event is being recorded, no event is
+	 * recorded in it afterwards
+	 * @param second the current time in seconds
+	 * @return true if it was retired and can be discarded
+	 */
+	boolean retire(long second) {
+		if (!isIdle(second) || !recording.compareAndSet(0, RETIRED)) {
+			return false;
+		}
+		if (isIdle(second)) {
+			return true;
+		}
+		recording.set(0); //an event was recorded after the first check
+		return false;
+	}
+
+	/**
+	 * Counts an event
+	 * @param type the kind of event
+	 * 		  second the current time in seconds
+	 */
+	void record(int type, long second) {
+		increment(seconds, type, second);
+		increment(minutes, type, second / 60);
+	}
+
+	private void increment(AtomicLongArray ring, int type, long unit) {
+		int slot = type * SLOTS + (int) (unit % SLOTS);
+		while (true) {
+			long current = ring.get(slot);
+			long next = (current >>> COUNT_BITS) == unit ? current + 1 : (unit << COUNT_BITS) | 1;
+			if ((current >>> COUNT_BITS) > unit || ring.compareAndSet(slot, current, next)) {
+				return; //a newer lap was started by a faster thread, the late event is dropped
+			}
+		}
+	}
+
+	/**
+	 * @param type the kind of event
+	 * 		  second the current time in seconds
+	 * @return the events of every second of the last minute, the oldest first
+	 */
+	int[] perSecond(int type, long second) {
+		return lastSlots(seconds, type, second);
+	}
+
+	/**
+	 * @param type the kind of event
+	 * 		  second the current time in seconds
+	 * @return the events of every minute of the last hour, the oldest first
+	 */
+	int[] perMinute(int type, long second) {
+		return lastSlots(minutes, type, second / 60);
+	}
+
+	/**
+	 * @param type the kind of event
+	 * 		  second the current time in seconds
+	 * @return the events in the last 60 seconds, the current one included
+	 */
+	long lastMinute(int type, long second) {
+		return sum(seconds, type, second);
+	}
+
+	/**
+	 * @param type the kind of event
+	 * 		  second the current time in seconds
+	 * @return the events in the last 60 minutes, the current one included
+	 */
+	long lastHour(int type, long second) {
+		return sum(minutes, type, second / 60);
+	}
+
+	/**
+	 * @param second the current time in seconds
+	 * @return true if there were no events in the last hour, so the window can be discarded
+	 */
+	boolean isIdle(long second) {
+		for (int type = 0; type < types; type++) {
+			if (lastHour(type, second) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] lastSlots(AtomicLongArray ring, int type, long unit) {
+		int[] counts = new int[SLOTS];
+		for (int i = 0; i < SLOTS; i++) {
+			counts[SLOTS - 1 - i] = (int) count(ring, type, unit - i);
+		}
+		return counts;
+	}
+
+	private static long sum(AtomicLongArray ring, int type, long unit) {
+		long total = 0;
+		for (int i = 0; i < SLOTS; i++) {
+			total += count(ring, type, unit - i);
+		}
+		return total;
+	}
+
+	private static long count(AtomicLongArray ring, int type, long unit) {
+		if (unit < 0) {
+			return 0;
+		}
+		long value = ring.get(type * SLOTS + (int) (unit % SLOTS));
+		return (value >>> COUNT_BITS) == unit ? value & COUNT_MASK : 0;
+	}
+}
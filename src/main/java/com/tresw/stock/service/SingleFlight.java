@@ -0,0 +1,71 @@
+package com.tresw.stock.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent loads of the same key. The first caller runs the load, the callers arriving while it
+ * is in flight wait for it and share its result or its exception. Nothing is kept once the load finishes.
+ * @author alejandro
+ *
+ * @param <K> the key's type
+ * @param <V> the value's type
+ */
+class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Loads the value of a key, or joins the load already in flight for it
+	 * @param key the key to load
+	 * 		  loader the function loading the value, run at most once at a time per key
+	 * @return the loaded value
+	 */
+	V execute(K key, Supplier<V> loader) {
+		calls.increment();
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+		if (existing != null) {
+			coalesced.increment();
+			return join(existing);
+		}
+		try {
+			V value = loader.get();
+			flight.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	long getCalls() {
+		return calls.sum();
+	}
+
+	long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private V join(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
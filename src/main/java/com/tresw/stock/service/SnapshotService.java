@@ -0,0 +1,254 @@
+package com.tresw.stock.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.domain.InventorySnapshot;
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * Background job writing all the stocks and products of every shard to a binary snapshot file. The file is
+ * written with a temporary name and renamed when complete, so the latest snapshot is always a whole file. Every
+ * shard is read in a single read only repeatable read transaction, so its stocks counters match its products and
+ * a product moved to the archive meanwhile is written once.
+ * <p>
+ * Format, big endian as written by {@link DataOutputStream}, strings as modified UTF-8 with a 2 bytes length:
+ * <ul>
+ * <li>header: int magic 0x53544B53, short format version, long snapshot version, int stocks, long products</li>
+ * <li>stocks: int id, int quantity, int in stock, int reserved, int sold, string price, string name,
+ * string short description, string long description</li>
+ * <li>products, archived included: int id, int stock id, byte status ordinal, string serial number</li>
+ * </ul>
+ * @author alejandro
+ *
+ */
+@Component
+public class SnapshotService {
+
+	private static final Logger log = LoggerFactory.getLogger(SnapshotService.class);
+
+	public static final int MAGIC = 0x53544B53;
+	public static final short FORMAT = 1;
+
+	private static final String PREFIX = "inventory-";
+	private static final String SUFFIX = ".snapshot";
+	private static final int HEADER_COUNTS_OFFSET = 4 + 2 + 8;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int KEPT = 2;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired(required = false)
+	private LeaseManager leaseManager;
+
+	@Value("${stock.snapshot.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.snapshot.dir:./data/snapshot}")
+	private File dir;
+
+	private volatile InventorySnapshot latest;
+
+	private TransactionTemplate transaction;
+
+	@PostConstruct
+	public void init() {
+		transaction = new TransactionTemplate(transactionManager);
+		transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		transaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+		transaction.setReadOnly(true);
+		loadLatest();
+	}
+
+	/**
+	 * @return the latest snapshot written, null if there is none
+	 */
+	public InventorySnapshot getLatest() {
+		return latest;
+	}
+
+	/**
+	 * Writes a new snapshot on schedule. In cluster mode only the leader writes it, the other instances load the
+	 * latest one found in the directory, shared by the instances.
+	 */
+	@Scheduled(initialDelayString = "${stock.snapshot.initial-delay:10000}", fixedDelayString = "${stock.snapshot.delay:3600000}")
+	public void scheduled() {
+		if (!enabled) {
+			return;
+		}
+		if (leaseManager == null || leaseManager.isLeader()) {
+			write();
+		} else {
+			loadLatest();
+		}
+	}
+
+	/**
+	 * Reads the latest snapshot of the directory, if it is newer than the one known
+	 */
+	private void loadLatest() {
+		File[] files = list();
+		if (files.length == 0 || (latest != null && latest.getFile().equals(files[files.length - 1]))) {
+			return;
+		}
+		try {
+			latest = read(files[files.length - 1]);
+		} catch (IOException e) {
+			log.warn("Could not read the snapshot {}", files[files.length - 1], e);
+		}
+	}
+
+	/**
+	 * Writes a new snapshot of all the stocks and products, it becomes the latest when complete. Only the last
+	 * snapshots are kept so the downloads of the previous one can be finished.
+	 * @return the snapshot written
+	 */
+	public synchronized InventorySnapshot write() {
+		long version = System.currentTimeMillis();
+		dir.mkdirs();
+		File file = new File(dir, PREFIX + version + SUFFIX);
+		File temporary = new File(dir, PREFIX + version + SUFFIX + ".tmp");
+		//the products of every shard are read with its stocks, and appended after the stocks of all the shards
+		File temporaryProducts = new File(dir, PREFIX + version + SUFFIX + ".products.tmp");
+		int[] stocks = new int[1];
+		long[] products = new long[1];
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE))) {
+				out.writeInt(MAGIC);
+				out.writeShort(FORMAT);
+				out.writeLong(version);
+				out.writeInt(0);
+				out.writeLong(0);
+				try (DataOutputStream productsOut = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(temporaryProducts), BUFFER_SIZE))) {
+					shardRouter.eachShard(() -> transaction.execute(status -> {
+						stocks[0] += writeStocks(out);
+						products[0] += writeProducts(productsOut, "product");
+						products[0] += writeProducts(productsOut, "product_archive");
+						return null;
+					}));
+				}
+				Files.copy(temporaryProducts.toPath(), out);
+			}
+			try (RandomAccessFile header = new RandomAccessFile(temporary, "rw")) {
+				header.seek(HEADER_COUNTS_OFFSET);
+				header.writeInt(stocks[0]);
+				header.writeLong(products[0]);
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | UncheckedIOException e) {
+			temporary.delete();
+			throw new IllegalStateException("Could not write the snapshot " + file, e);
+		} finally {
+			temporaryProducts.delete();
+		}
+		latest = new InventorySnapshot(file, version, stocks[0], products[0]);
+		deleteOld();
+		log.info("Snapshot {} written with {} stocks and {} products, {} bytes", version, stocks[0], products[0],
+				file.length());
+		return latest;
+	}
+
+	private int writeStocks(DataOutputStream out) {
+		int[] count = new int[1];
+		jdbcTemplate.query("SELECT id, quantity, in_stock, reserved, sold, price, name, short_description, "
+				+ "long_description FROM stock ORDER BY id", rs -> {
+					try {
+						out.writeInt(rs.getInt(1));
+						out.writeInt(rs.getInt(2));
+						out.writeInt(rs.getInt(3));
+						out.writeInt(rs.getInt(4));
+						out.writeInt(rs.getInt(5));
+						out.writeUTF(rs.getBigDecimal(6).toPlainString());
+						out.writeUTF(rs.getString(7));
+						out.writeUTF(rs.getString(8));
+						out.writeUTF(rs.getString(9));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					count[0]++;
+				});
+		return count[0];
+	}
+
+	private long writeProducts(DataOutputStream out, String table) {
+		long[] count = new long[1];
+		jdbcTemplate.query("SELECT id, id_stock, status, serial_no FROM " + table + " ORDER BY id", rs -> {
+			try {
+				out.writeInt(rs.getInt(1));
+				out.writeInt(rs.getInt(2));
+				out.writeByte(Status.valueOf(rs.getString(3)).ordinal());
+				out.writeUTF(rs.getString(4));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			count[0]++;
+		});
+		return count[0];
+	}
+
+	private static InventorySnapshot read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != MAGIC || in.readShort() != FORMAT) {
+				throw new IOException("Unknown snapshot format");
+			}
+			long version = in.readLong();
+			return new InventorySnapshot(file, version, in.readInt(), in.readLong());
+		}
+	}
+
+	private void deleteOld() {
+		File[] files = list();
+		for (int i = 0; i < files.length - KEPT; i++) {
+			files[i].delete();
+		}
+	}
+
+	private File[] list() {
+		File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, Comparator.comparingLong(SnapshotService::versionOf));
+		return files;
+	}
+
+	private static long versionOf(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
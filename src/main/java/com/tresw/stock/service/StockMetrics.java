@@ -0,0 +1,38 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the stock service's counters in the actuator's metrics
+ * @author alejandro
+ *
+ */
+@Component
+public class StockMetrics implements PublicMetrics {
+
+	@Autowired
+	private StockService stockService;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		addReads(metrics, "stock.reads.stock", stockService.getStockFlight());
+		addReads(metrics, "stock.reads.product", stockService.getProductFlight());
+		return metrics;
+	}
+
+	private static void addReads(List<Metric<?>> metrics, String prefix, SingleFlight<?, ?> flight) {
+		long calls = flight.getCalls();
+		long coalesced = flight.getCoalesced();
+		metrics.add(new Metric<Long>(prefix + ".calls", calls));
+		metrics.add(new Metric<Long>(prefix + ".coalesced", coalesced));
+		metrics.add(new Metric<Double>(prefix + ".coalesced-ratio", calls == 0 ? 0.0 : (double) coalesced / calls));
+	}
+}
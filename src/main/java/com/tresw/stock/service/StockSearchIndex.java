@@ -0,0 +1,218 @@
+package com.tresw.stock.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockSearchResult;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.shard.ShardRouter;
+
+/**
+ * In memory inverted index of the stocks names and descriptions. Every term points to the stocks containing it
+ * with a weight depending on the field, the terms are sorted so a query word also matches the terms it is a
+ * prefix of.
+ * 
+ * It is built from the stock table at startup and periodically, and updated when a stock is created or
+ * updated. The searches do not lock, the updates are serialized. A rebuild scans the table without blocking the
+ * updates, the stocks indexed meanwhile are added again to the new index before it replaces the current one.
+ * @author alejandro
+ *
+ */
+@Component
+public class StockSearchIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(StockSearchIndex.class);
+
+	private static final int NAME_WEIGHT = 3;
+	private static final int SHORT_DESCRIPTION_WEIGHT = 2;
+	private static final int LONG_DESCRIPTION_WEIGHT = 1;
+	private static final int REBUILD_PAGE_SIZE = 500;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	private volatile Index index = new Index();
+
+	private final Object rebuildLock = new Object();
+
+	//stocks indexed while a rebuild runs, null when none runs, guarded by this
+	private List<Stock> indexedDuringRebuild;
+
+	/**
+	 * Searches the stocks matching every word of the query, as a whole term or as a prefix of a term. Whole
+	 * term matches score twice as much as prefix matches, matches in the name more than in the descriptions.
+	 * @param query the words to search
+	 * 		  count maximum number of results
+	 * @return the stocks found, the most relevant first
+	 */
+	public List<StockSearchResult> search(String query, int count) {
+		Index current = index;
+		Map<Integer, Integer> scores = null;
+		for (String word : tokenize(query).keySet()) {
+			Map<Integer, Integer> wordScores = new HashMap<>();
+			for (Map.Entry<String, ConcurrentMap<Integer, Integer>> term : current.terms
+					.subMap(word, true, word + Character.MAX_VALUE, true).entrySet()) {
+				int factor = term.getKey().equals(word) ? 2 : 1;
+				for (Map.Entry<Integer, Integer> posting : term.getValue().entrySet()) {
+					wordScores.merge(posting.getKey(), posting.getValue() * factor, Integer::sum);
+				}
+			}
+			if (scores == null) {
+				scores = wordScores;
+			} else {
+				scores.keySet().retainAll(wordScores.keySet());
+				for (Map.Entry<Integer, Integer> score : scores.entrySet()) {
+					score.setValue(score.getValue() + wordScores.get(score.getKey()));
+				}
+			}
+			if (scores.isEmpty()) {
+				break;
+			}
+		}
+		List<StockSearchResult> results = new ArrayList<>();
+		if (scores == null) {
+			return results;
+		}
+		for (Map.Entry<Integer, Integer> score : scores.entrySet()) {
+			StockSearchResult document = current.documents.get(score.getKey());
+			if (document != null) {
+				results.add(new StockSearchResult(document, score.getValue()));
+			}
+		}
+		results.sort(Comparator.comparingInt(StockSearchResult::getScore).reversed()
+				.thenComparing(StockSearchResult::getName));
+		return results.size() > count ? new ArrayList<>(results.subList(0, count)) : results;
+	}
+
+	/**
+	 * Adds the stock to the index, replacing its previous terms if it was already indexed
+	 * @param stock the stock to index
+	 */
+	public synchronized void index(Stock stock) {
+		index.add(stock);
+		if (indexedDuringRebuild != null) {
+			indexedDuringRebuild.add(stock);
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the stock table of every shard, the searches keep using the previous index until it is done
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(initialDelayString = "${stock.search.rebuild-delay:600000}", fixedDelayString = "${stock.search.rebuild-delay:600000}")
+	public void rebuild() {
+		synchronized (rebuildLock) {
+			synchronized (this) {
+				indexedDuringRebuild = new ArrayList<>();
+			}
+			Index rebuilt = new Index();
+			try {
+				shardRouter.eachShard(() -> {
+					Page<Stock> page = stockRepository.findAll(new PageRequest(0, REBUILD_PAGE_SIZE, new Sort("id")));
+					while (page.hasContent()) {
+						for (Stock stock : page) {
+							rebuilt.add(stock);
+						}
+						if (!page.hasNext()) {
+							break;
+						}
+						page = stockRepository.findAll(page.nextPageable());
+					}
+					return null;
+				});
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					indexedDuringRebuild = null;
+				}
+				throw e;
+			}
+			synchronized (this) {
+				//the scan may have read these stocks before they changed
+				for (Stock stock : indexedDuringRebuild) {
+					rebuilt.add(stock);
+				}
+				indexedDuringRebuild = null;
+				index = rebuilt;
+			}
+			log.info("Search index rebuilt with {} stocks and {} terms", rebuilt.documents.size(), rebuilt.terms.size());
+		}
+	}
+
+	/**
+	 * Splits the text in lower case words
+	 * @param text the text to split
+	 * @return the words and the number of times each appears
+	 */
+	private static Map<String, Integer> tokenize(String text) {
+		Map<String, Integer> words = new HashMap<>();
+		if (text == null) {
+			return words;
+		}
+		for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+			if (!word.isEmpty()) {
+				words.merge(word, 1, Integer::sum);
+			}
+		}
+		return words;
+	}
+
+	private static class Index {
+
+		private final ConcurrentNavigableMap<String, ConcurrentMap<Integer, Integer>> terms = new ConcurrentSkipListMap<>();
+		private final ConcurrentMap<Integer, Map<String, Integer>> stockTerms = new ConcurrentHashMap<>();
+		private final ConcurrentMap<Integer, StockSearchResult> documents = new ConcurrentHashMap<>();
+
+		private void add(Stock stock) {
+			Map<String, Integer> weights = new HashMap<>();
+			addWeights(weights, stock.getName(), NAME_WEIGHT);
+			addWeights(weights, stock.getShortDescription(), SHORT_DESCRIPTION_WEIGHT);
+			addWeights(weights, stock.getLongDescription(), LONG_DESCRIPTION_WEIGHT);
+			Map<String, Integer> previous = stockTerms.put(stock.getId(), weights);
+			if (previous != null) {
+				for (String term : previous.keySet()) {
+					if (!weights.containsKey(term)) {
+						ConcurrentMap<Integer, Integer> postings = terms.get(term);
+						postings.remove(stock.getId());
+						if (postings.isEmpty()) {
+							terms.remove(term);
+						}
+					}
+				}
+			}
+			for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+				terms.computeIfAbsent(weight.getKey(), term -> new ConcurrentHashMap<>()).put(stock.getId(),
+						weight.getValue());
+			}
+			documents.put(stock.getId(), new StockSearchResult(stock));
+		}
+
+		private static void addWeights(Map<String, Integer> weights, String text, int weight) {
+			for (Map.Entry<String, Integer> word : tokenize(text).entrySet()) {
+				weights.merge(word.getKey(), word.getValue() * weight, Integer::sum);
+			}
+		}
+	}
+}
@@ -1,27 +1,53 @@
 package com.tresw.stock.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 
 import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.tresw.stock.alert.LowStockAlerts;
+import com.tresw.stock.cluster.LeaseManager;
+import com.tresw.stock.domain.ArchivedProduct;
 import com.tresw.stock.domain.Product;
+import com.tresw.stock.domain.ProductLookup;
 import com.tresw.stock.domain.Product.Status;
 import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockSearchResult;
+import com.tresw.stock.domain.StockSummary;
+import com.tresw.stock.repository.ArchivedProductRepository;
 import com.tresw.stock.repository.ProductRepository;
 import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.service.VersionStamps.Tagged;
+import com.tresw.stock.shard.ShardRouter;
 
 /**
  * This class implements all the necessary functions to manage the stock. It allows to create new stock, update stock as well
  * ass create, sell, reserve and unreserve products.
+ * 
+ * The data base work runs through the shard router, on the shard holding the stock or the product.
  *  
  * @author alejandro
  *
@@ -29,19 +55,98 @@ import com.tresw.stock.repository.StockRepository;
 @Service
 public class StockService {
 
+	private static final int REPAIR_PAGE_SIZE = 500;
+
+	private static final int LOOKUP_CHUNK_SIZE = 500;
+
+	private static final int LOOKUP_MAX_SERIALS = 5000;
+
 	@Autowired
 	private ProductRepository productRepository;
 
 	@Autowired
 	private StockRepository stockRepository;
-	
+
+	@Autowired
+	private ArchivedProductRepository archivedProductRepository;
+
+	@Autowired
+	private StockSearchIndex stockSearchIndex;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired(required = false)
+	private LeaseManager leaseManager;
+
+	@Autowired(required = false)
+	private OwnedStockCache ownedStockCache;
+
+	@Autowired
+	private VersionStamps versionStamps;
+
+	@Autowired
+	private LowStockAlerts lowStockAlerts;
+
+	@Autowired
+	private SalesVelocity salesVelocity;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private TransactionTemplate readTransaction;
+
+	private TransactionTemplate writeTransaction;
+
+	private final SingleFlight<Integer, Tagged<Stock>> stockFlight = new SingleFlight<>();
+
+	private final SingleFlight<String, Tagged<Product>> productFlight = new SingleFlight<>();
+
+	@PostConstruct
+	public void init() {
+		readTransaction = new TransactionTemplate(transactionManager);
+		readTransaction.setReadOnly(true);
+		writeTransaction = new TransactionTemplate(transactionManager);
+	}
+
 	/**
-	 * Find stock by id
+	 * Find stock by id. Concurrent reads of the same stock share a single query and result, so the returned
+	 * instance must not be modified, it is loaded with its products.
 	 * @param stockId the stock's id
 	 * @return stock instance
 	 * @throws StockNotFoundException if the stock does not exist
 	 */
 	public Stock getStock(int stockId) {
+		return getTaggedStock(stockId).getValue();
+	}
+
+	/**
+	 * Find stock by id with the ETag it had before it was read, shared like the stock by concurrent reads
+	 * @param stockId the stock's id
+	 * @return stock instance and its ETag, null if the version stamps are disabled
+	 * @throws StockNotFoundException if the stock does not exist
+	 */
+	public Tagged<Stock> getTaggedStock(int stockId) {
+		return stockFlight.execute(stockId, () -> {
+			String tag = versionStamps.stockTag(stockId);
+			return new Tagged<>(tag, shardRouter.onStock(stockId, () -> readTransaction.execute(status -> {
+				Stock stock = findStock(stockId);
+				Hibernate.initialize(stock.getProducts()); //the followers can not load it from the leader's session
+				return stock;
+			})));
+		});
+	}
+
+	/**
+	 * Find stock by id, to be modified by the caller
+	 * @param stockId the stock's id
+	 * @return stock instance
+	 * @throws StockNotFoundException if the stock does not exist
+	 */
+	private Stock findStock(int stockId) {
 		Stock stock = stockRepository.findOne(stockId);
 		if (stock == null)
 			throw new StockNotFoundException();
@@ -55,31 +160,130 @@ public class StockService {
 	 * 		   ProductNotAvailableException if the product is not available for selling
 	 */
 	public void sellProduct(String serial) {
-		Product product = getProduct(serial);
+		change(serial, StockService::sell);
+	}
+
+	private static void sell(Product product) {
 		if (!product.getStatus().equals(Status.IN_STOCK) && !product.getStatus().equals(Status.RESERVED)) {
 			throw new ProductNotAvailableException();
 		}
 		Stock stock = product.getStock();
+		if (product.getStatus().equals(Status.IN_STOCK)) {
+			stock.setQuantity(stock.getQuantity() - 1); //a reserved product was already taken from the quantity
+		}
+		stock.moveCount(product.getStatus(), Status.SOLD);
 		product.setStatus(Status.SOLD);
-		stock.setQuantity(stock.getQuantity() - 1); //decrease the product's quantity in the stock
-		productRepository.save(product);
-		stockRepository.save(stock);
 	}
 
 	/**
-	 * Find product by id
+	 * Applies a change to a product and its stock. The owner instance of a cluster applies it to the stock it
+	 * keeps in memory, otherwise the product is read and saved in the data base holding the stock's row lock.
+	 * The low stock alert is checked before the lock is released.
+	 * @param serial the product's serial number
+	 * 		  change validates and applies the change to the product and its stock
+	 * @throws ProductNotFoundException if the product does not exist
+	 */
+	private void change(String serial, Consumer<Product> change) {
+		if (ownedStockCache != null) {
+			//the sales velocity is disabled in cluster mode, the alert is checked holding the stock's lock
+			ownedStockCache.apply(serial, () -> shardRouter.onSerial(serial, () -> findProduct(serial)),
+					change.andThen(product -> lowStockAlerts.check(product.getStock())));
+			return;
+		}
+		Product changed = shardRouter.onSerial(serial, () -> writeTransaction.execute(status -> {
+			Product product = findProduct(serial);
+			lockStock(product.getStock());
+			if (entityManager.contains(product)) {
+				entityManager.refresh(product); //it may have changed before the stock was locked
+			}
+			change.accept(product);
+			productRepository.save(product);
+			lowStockAlerts.check(stockRepository.save(product.getStock()));
+			return product;
+		}));
+		versionStamps.touchProduct(serial);
+		versionStamps.touchStock(changed.getStock().getId());
+		salesVelocity.record(changed.getStock().getId(), changed.getStatus());
+	}
+
+	/**
+	 * Locks the stock's row until the transaction ends and reloads it, the session may hold an older copy. The
+	 * changes of a stock, and the low stock alerts checked from them, follow the order of the lock.
+	 * @param stock the stock, managed by the current session
+	 * @return the same stock instance
+	 */
+	private Stock lockStock(Stock stock) {
+		entityManager.refresh(stock, LockModeType.PESSIMISTIC_WRITE);
+		return stock;
+	}
+
+	/**
+	 * Runs work modifying a stock in the data base, after the changes the owner instance keeps in memory
+	 */
+	private <T> T onOwnedStock(int stockId, Supplier<T> work) {
+		return ownedStockCache == null ? work.get() : ownedStockCache.exclusive(stockId, work);
+	}
+
+	/**
+	 * Find product by id. Concurrent reads of the same product share a single query and result, so the
+	 * returned instance must not be modified.
 	 * @param serial the product's serial number
 	 * @return product instance
 	 * @throws ProductNotFoundException if the product does not exist
 	 */
 	public Product getProduct(String serial) {
-		Product product = productRepository.findBySerialNo(serial);
+		return getTaggedProduct(serial).getValue();
+	}
+
+	/**
+	 * Find product by id with the ETag it had before it was read, shared like the product by concurrent reads
+	 * @param serial the product's serial number
+	 * @return product instance and its ETag, null if the version stamps are disabled
+	 * @throws ProductNotFoundException if the product does not exist
+	 */
+	public Tagged<Product> getTaggedProduct(String serial) {
+		return productFlight.execute(serial, () -> {
+			String tag = versionStamps.productTag(serial);
+			return new Tagged<>(tag, shardRouter.onSerial(serial, () -> findProduct(serial)));
+		});
+	}
+
+	/**
+	 * Find product by id, to be modified by the caller
+	 * @param serial the product's serial number
+	 * @return product instance
+	 * @throws ProductNotFoundException if the product does not exist
+	 */
+	private Product findProduct(String serial) {
+		Product product = lookupProduct(serial);
 		if (product == null) {
 			throw new ProductNotFoundException();
 		}
 		return product;
 	}
 
+	/**
+	 * Looks the product up in the product table and, if it is not there, in the archive
+	 * @param serial the product's serial number
+	 * @return null if if does not exist, an instance of product if it exists
+	 */
+	private Product lookupProduct(String serial) {
+		Product product = productRepository.findBySerialNo(serial);
+		if (product != null) {
+			return product;
+		}
+		ArchivedProduct archived = archivedProductRepository.findBySerialNo(serial);
+		if (archived == null) {
+			return null;
+		}
+		product = new Product();
+		product.setId(archived.getId());
+		product.setSerialNo(archived.getSerialNo());
+		product.setStatus(archived.getStatus());
+		product.setStock(stockRepository.findOne(archived.getStockId()));
+		return product;
+	}
+
 	/**
 	 * Gets the products associated to a stock
 	 * @param idStock  the stocks id
@@ -88,9 +292,82 @@ public class StockService {
 	 */
 	@Transactional
 	public Set<Product> getProducts(int idStock) {
-		Stock stock = getStock(idStock);
-		Hibernate.initialize(stock.getProducts());
-		return stock.getProducts();
+		return shardRouter.onStock(idStock, () -> {
+			Stock stock = findStock(idStock);
+			Hibernate.initialize(stock.getProducts());
+			return stock.getProducts();
+		});
+	}
+
+	/**
+	 * Finds several products by serial number, with one query per chunk of serials and without loading the
+	 * stock of every product. The stocks involved are loaded once each. Every chunk is looked up in all the
+	 * shards.
+	 * @param serials the products serial numbers
+	 * @return the products found, in the requested order, their stocks and the serials not found
+	 * @throws TooManySerialsException if more serials than allowed are requested
+	 */
+	public ProductLookup lookupProducts(List<String> serials) {
+		if (serials.size() > LOOKUP_MAX_SERIALS) {
+			throw new TooManySerialsException();
+		}
+		List<String> pending = new ArrayList<>(new LinkedHashSet<>(serials));
+		Map<String, ProductLookup.Item> found = new HashMap<>();
+		for (int from = 0; from < pending.size(); from += LOOKUP_CHUNK_SIZE) {
+			List<String> chunk = pending.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, pending.size()));
+			for (List<Object[]> rows : shardRouter.onAllShards(() -> productRepository.findRowsBySerialNoIn(chunk))) {
+				addItems(found, rows);
+			}
+		}
+		List<String> missing = new ArrayList<>();
+		for (String serial : pending) {
+			if (!found.containsKey(serial)) {
+				missing.add(serial);
+			}
+		}
+		for (int from = 0; from < missing.size(); from += LOOKUP_CHUNK_SIZE) {
+			List<String> chunk = missing.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, missing.size()));
+			for (List<Object[]> rows : shardRouter
+					.onAllShards(() -> archivedProductRepository.findRowsBySerialNoIn(chunk))) {
+				addItems(found, rows);
+			}
+		}
+		ProductLookup lookup = new ProductLookup();
+		Map<Integer, ProductLookup.StockHeader> stocks = new LinkedHashMap<>();
+		for (String serial : pending) {
+			ProductLookup.Item item = found.get(serial);
+			if (item == null) {
+				lookup.getUnknown().add(serial);
+			} else {
+				lookup.getProducts().add(item);
+				stocks.put(item.getStockId(), null);
+			}
+		}
+		if (!stocks.isEmpty()) {
+			List<ProductLookup.StockHeader> headers = shardRouter.onStocks(stocks.keySet(), ids -> {
+				List<ProductLookup.StockHeader> shardHeaders = new ArrayList<>();
+				for (Stock stock : stockRepository.findAll(ids)) {
+					shardHeaders.add(new ProductLookup.StockHeader(stock));
+				}
+				return shardHeaders;
+			});
+			for (ProductLookup.StockHeader header : headers) {
+				stocks.put(header.getId(), header);
+			}
+			for (ProductLookup.StockHeader stock : stocks.values()) {
+				if (stock != null) {
+					lookup.getStocks().add(stock);
+				}
+			}
+		}
+		return lookup;
+	}
+
+	private static void addItems(Map<String, ProductLookup.Item> found, List<Object[]> rows) {
+		for (Object[] row : rows) {
+			found.put((String) row[1], new ProductLookup.Item((Integer) row[0], (String) row[1], (Status) row[2],
+					(Integer) row[3]));
+		}
 	}
 
 	/**
@@ -100,15 +377,17 @@ public class StockService {
 	 * 		   ProductNotAvailableException if the product is not available for selling
 	 */
 	public void reserveProduct(String serial) {
-		Product product = getProduct(serial);
+		change(serial, StockService::reserve);
+	}
+
+	private static void reserve(Product product) {
 		if (!product.getStatus().equals(Status.IN_STOCK)) {
 			throw new ProductNotAvailableException();
 		}
 		Stock stock = product.getStock();
+		stock.moveCount(Status.IN_STOCK, Status.RESERVED);
 		product.setStatus(Status.RESERVED);
 		stock.setQuantity(stock.getQuantity() - 1); //Decresases the number of available products
-		productRepository.save(product);
-		stockRepository.save(stock);
 	}
 	
 	/**
@@ -118,39 +397,58 @@ public class StockService {
 	 * 		   ProductNotAvailableException if the product is not available for unreserving
 	 */
 	public void unReserveProduct(String serial) {
-		Product product = getProduct(serial);
+		change(serial, StockService::unReserve);
+	}
+
+	private static void unReserve(Product product) {
 		if (!product.getStatus().equals(Status.RESERVED)) {
 			throw new ProductNotAvailableException();
 		}
 		Stock stock = product.getStock();
+		stock.moveCount(Status.RESERVED, Status.IN_STOCK);
 		product.setStatus(Status.IN_STOCK);
 		stock.setQuantity(stock.getQuantity() + 1); //Increases the number of available products
-		productRepository.save(product);
-		stockRepository.save(stock);
-
 	}
 
 	/**
-	 * Adds a product to the stock
+	 * Adds a product to the stock. The serial number is registered in the directory before the product is
+	 * saved in the stock's shard, and unregistered if saving fails.
 	 * @param  stockId the stock's id to which the product is going to be added
 	 * 		   serial the product's serial number to be added
 	 * @throws StockNotFoundException if the stock does not exist
 	 * 		   ProductAlreadyExistsException if the product already exists
 	 */
 	public Product addProduct(int stockId, String serial) {
-		Stock stock = getStock(stockId);
-		Product product = productRepository.findBySerialNo(serial);
-		if (product != null) {
+		shardRouter.onStock(stockId, () -> findStock(stockId));
+		Product product = shardRouter.onSerial(serial, () -> lookupProduct(serial));
+		if (product != null || !shardRouter.registerSerial(serial, stockId)) {
 			throw new ProductAlreadyExistsException();
 		}
+		Stock stock;
+		try {
+			stock = onOwnedStock(stockId, () -> shardRouter.onStock(stockId,
+					() -> writeTransaction.execute(status -> add(lockStock(findStock(stockId)), serial))));
+		} catch (RuntimeException e) {
+			shardRouter.unregisterSerial(serial);
+			throw e;
+		}
+		versionStamps.touchProduct(serial);
+		versionStamps.touchStock(stockId);
+		salesVelocity.record(stock.getId(), Status.IN_STOCK);
+		return product;
+	}
+
+	private Stock add(Stock stock, String serial) {
 		Product p = new Product();
 		p.setSerialNo(serial);
 		p.setStatus(Status.IN_STOCK);
 		p.setStock(stock);
 		productRepository.save(p);
 		stock.setQuantity(stock.getQuantity() + 1); //Increases the number of available products
-		stockRepository.save(stock);
-		return product;
+		stock.moveCount(null, Status.IN_STOCK);
+		Stock saved = stockRepository.save(stock);
+		lowStockAlerts.check(saved);
+		return saved;
 	}
 
 	/**
@@ -167,11 +465,15 @@ public class StockService {
 	}
 
 	/**
-	 * Creates a new stock inventory
+	 * Creates a new stock inventory, in the shard with fewer stocks
 	 * @param  stock the stock to be created
 	 */
 	public Stock addStock(Stock stock) {
-		return stockRepository.save(stock);
+		Stock saved = shardRouter.onNewStock(() -> stockRepository.save(stock));
+		stockSearchIndex.index(saved);
+		versionStamps.touchStock(saved.getId());
+		lowStockAlerts.check(saved);
+		return saved;
 	}
 
 	/**
@@ -182,9 +484,23 @@ public class StockService {
 	 * 		   IncorrectProductException if the data is incorrect
 	 */
 	public Stock updateStock(Integer idStock, Stock stock) {
-		getStock(idStock);
+		Stock saved = onOwnedStock(idStock, () -> shardRouter.onStock(idStock,
+				() -> writeTransaction.execute(status -> update(idStock, stock))));
+		stockSearchIndex.index(saved);
+		versionStamps.touchStock(idStock);
+		return saved;
+	}
+
+	private Stock update(Integer idStock, Stock stock) {
+		Stock current = lockStock(findStock(idStock));
 		if(idStock==stock.getId()){
-			return stockRepository.save(stock);
+			//the status counters are maintained by the product operations, never by the client
+			stock.setInStock(current.getInStock());
+			stock.setReserved(current.getReserved());
+			stock.setSold(current.getSold());
+			Stock saved = stockRepository.save(stock);
+			lowStockAlerts.check(saved);
+			return saved;
 		}
 		else {
 			throw new IncorrectStockException();
@@ -192,11 +508,124 @@ public class StockService {
 	}
 	
 	/**
-	 * Returns a list of paginated stocks 
+	 * Returns a list of paginated stocks, merged from all the shards
 	 * @param  pageRequest containing the pagination details
 	 */
 	public Page<Stock> getStocks(PageRequest pageRequest) {
-		return stockRepository.findAll(pageRequest);
+		return shardRouter.findPage(pageRequest, pageable -> {
+			Page<Stock> page = stockRepository.findAll(pageable);
+			if (shardRouter.isEnabled()) {
+				//the shard's session is closed before the page is rendered
+				page.forEach(stock -> Hibernate.initialize(stock.getProducts()));
+			}
+			return page;
+		});
+	}
+
+	/**
+	 * Searches the stocks by name and descriptions, from the in memory index
+	 * @param  query the words to search, every one has to match a word or the start of a word
+	 * 		   count maximum number of results
+	 * @return list of stocks found, the most relevant first
+	 */
+	public List<StockSearchResult> searchStocks(String query, int count) {
+		return stockSearchIndex.search(query, count);
+	}
+
+	/**
+	 * Gets the availability summary of a stock, read from the stock's counters
+	 * @param idStock the stock's id
+	 * @return the stock's summary
+	 * @throws StockNotFoundException if the stock does not exist
+	 */
+	public StockSummary getSummary(int idStock) {
+		return shardRouter.onStock(idStock, () -> new StockSummary(findStock(idStock)));
+	}
+
+	/**
+	 * Gets the availability summaries of several stocks, unknown ids are ignored
+	 * @param idStocks the stocks ids
+	 * @return list of summaries
+	 */
+	public List<StockSummary> getSummaries(List<Integer> idStocks) {
+		return shardRouter.onStocks(idStocks, ids -> {
+			List<StockSummary> summaries = new ArrayList<>();
+			for (Stock stock : stockRepository.findAll(ids)) {
+				summaries.add(new StockSummary(stock));
+			}
+			return summaries;
+		});
+	}
+
+	/**
+	 * Repairs the status counters on schedule, in cluster mode only on the leader
+	 */
+	@Scheduled(initialDelayString = "${stock.summary.repair-delay:3600000}", fixedDelayString = "${stock.summary.repair-delay:3600000}")
+	public void scheduledRepair() {
+		if (leaseManager == null || leaseManager.isLeader()) {
+			repairSummaries();
+		}
+	}
+
+	/**
+	 * Recomputes the status counters of every stock from its products, with one grouped query per table and
+	 * shard, and saves the stocks whose counters had drifted
+	 * @return number of stocks repaired
+	 */
+	@Transactional
+	public int repairSummaries() {
+		int repaired = 0;
+		for (int shardRepaired : shardRouter.onAllShards(this::repairShard)) {
+			repaired += shardRepaired;
+		}
+		return repaired;
+	}
+
+	private int repairShard() {
+		Map<Integer, Stock> counts = new HashMap<>();
+		addCounts(counts, productRepository.countByStockAndStatus());
+		addCounts(counts, archivedProductRepository.countByStockAndStatus());
+		int repaired = 0;
+		Page<Stock> page = stockRepository.findAll(new PageRequest(0, REPAIR_PAGE_SIZE, new Sort("id")));
+		while (page.hasContent()) {
+			List<Stock> changed = new ArrayList<>();
+			for (Stock stock : page) {
+				Stock count = counts.containsKey(stock.getId()) ? counts.get(stock.getId()) : new Stock();
+				if (stock.getInStock() != count.getInStock() || stock.getReserved() != count.getReserved()
+						|| stock.getSold() != count.getSold()) {
+					stock.setInStock(count.getInStock());
+					stock.setReserved(count.getReserved());
+					stock.setSold(count.getSold());
+					changed.add(stock);
+				}
+			}
+			stockRepository.save(changed);
+			repaired += changed.size();
+			if (!page.hasNext()) {
+				break;
+			}
+			page = stockRepository.findAll(page.nextPageable());
+		}
+		return repaired;
+	}
+
+	private static void addCounts(Map<Integer, Stock> counts, List<Object[]> rows) {
+		for (Object[] row : rows) {
+			Stock count = counts.get(row[0]);
+			if (count == null) {
+				count = new Stock();
+				counts.put((Integer) row[0], count);
+			}
+			count.addCount((Status) row[1], ((Long) row[2]).intValue());
+		}
+	}
+
+	SingleFlight<Integer, Tagged<Stock>> getStockFlight() {
+		return stockFlight;
+	}
+
+	SingleFlight<String, Tagged<Product>> getProductFlight() {
+		return productFlight;
 	}
 
 	@SuppressWarnings("serial")
@@ -224,4 +653,14 @@ public class StockService {
 	static class ProductNotAvailableException extends RuntimeException {
 	}
 
+	@SuppressWarnings("serial")
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	static class TooManySerialsException extends RuntimeException {
+	}
+
+	@SuppressWarnings("serial")
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	static class StockNotOwnedException extends RuntimeException {
+	}
+
 }
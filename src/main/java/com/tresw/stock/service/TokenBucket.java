@@ -0,0 +1,60 @@
+package com.tresw.stock.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket. Instead of counting tokens it keeps the theoretical arrival time of the next
+ * request (GCRA), so taking a token is a single compare and set on one long.
+ * @author alejandro
+ *
+ */
+class TokenBucket {
+
+	private final long interval;
+	private final long tolerance;
+	private final AtomicLong arrival;
+
+	/**
+	 * @param rate tokens refilled per second
+	 * 		   burst maximum number of tokens the bucket can hold
+	 * 		   now current time in nanoseconds
+	 */
+	TokenBucket(double rate, int burst, long now) {
+		this.interval = (long) (1_000_000_000L / rate);
+		this.tolerance = interval * (Math.max(burst, 1) - 1);
+		this.arrival = new AtomicLong(now);
+	}
+
+	/**
+	 * Takes a token from the bucket if there is any left
+	 * @param now current time in nanoseconds
+	 * @return true if the token was taken, false if the bucket is empty
+	 */
+	boolean tryAcquire(long now) {
+		while (true) {
+			long current = arrival.get();
+			long base = Math.max(current, now);
+			if (base - now > tolerance) {
+				return false;
+			}
+			if (arrival.compareAndSet(current, base + interval)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gives back a token taken by a request that was not admitted after all
+	 */
+	void release() {
+		arrival.addAndGet(-interval);
+	}
+
+	/**
+	 * @param now current time in nanoseconds
+	 * @return true if the bucket is full again, so it can be discarded without changing any decision
+	 */
+	boolean isFull(long now) {
+		return arrival.get() <= now;
+	}
+}
@@ -0,0 +1,140 @@
+package com.tresw.stock.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Version stamps of the stocks and products, used as their ETags. Every stock id and serial number is hashed to
+ * a slot of a fixed size array whose counter is increased after every change of the entity is committed. Two
+ * entities sharing a slot only cause unneeded reloads, an entity never keeps its stamp after changing. The stamps
+ * include the start time so the ones of a previous run are never matched.
+ * <p>
+ * They only see the changes made by this instance, so they are disabled in cluster mode.
+ * @author alejandro
+ *
+ */
+@Component
+public class VersionStamps {
+
+	@Value("${stock.etag.enabled:true}")
+	private boolean enabled;
+
+	@Value("${stock.cluster.enabled:false}")
+	private boolean cluster;
+
+	@Value("${stock.etag.slots:65536}")
+	private int slots;
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+	private AtomicLongArray stocks;
+
+	private AtomicLongArray products;
+
+	private int mask;
+
+	@PostConstruct
+	public void init() {
+		enabled = enabled && !cluster;
+		int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+		mask = size - 1;
+		stocks = new AtomicLongArray(size);
+		products = new AtomicLongArray(size);
+	}
+
+	/**
+	 * @return true if the stamps are kept
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return the stock's current ETag, null if the stamps are disabled
+	 */
+	public String stockTag(int stockId) {
+		return tag(stocks, Integer.hashCode(stockId));
+	}
+
+	/**
+	 * @param serial the product's serial number
+	 * @return the product's current ETag, null if the stamps are disabled
+	 */
+	public String productTag(String serial) {
+		return tag(products, serial.hashCode());
+	}
+
+	/**
+	 * Changes the stock's stamp, after the running transaction completes if there is one
+	 * @param stockId the stock's id
+	 */
+	public void touchStock(int stockId) {
+		touch(stocks, Integer.hashCode(stockId));
+	}
+
+	/**
+	 * Changes the product's stamp, after the running transaction completes if there is one
+	 * @param serial the product's serial number
+	 */
+	public void touchProduct(String serial) {
+		touch(products, serial.hashCode());
+	}
+
+	private String tag(AtomicLongArray stamps, int hash) {
+		if (!enabled) {
+			return null;
+		}
+		return "\"" + epoch + "-" + stamps.get(slot(hash)) + "\"";
+	}
+
+	private void touch(AtomicLongArray stamps, int hash) {
+		if (!enabled) {
+			return;
+		}
+		int slot = slot(hash);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			//changed after a rollback too, it only causes a reload
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					stamps.incrementAndGet(slot);
+				}
+			});
+		} else {
+			stamps.incrementAndGet(slot);
+		}
+	}
+
+	private int slot(int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * A value with the ETag it had when it was read
+	 */
+	public static class Tagged<T> {
+
+		private final String tag;
+		private final T value;
+
+		public Tagged(String tag, T value) {
+			this.tag = tag;
+			this.value = value;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		public T getValue() {
+			return value;
+		}
+	}
+}
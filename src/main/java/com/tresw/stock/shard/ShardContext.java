@@ -0,0 +1,44 @@
+package com.tresw.stock.shard;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the shard the current thread is working on. The data base connections opened while it is set are
+ * taken from that shard, when it is not set they are taken from the directory shard.
+ * @author alejandro
+ *
+ */
+public final class ShardContext {
+
+	private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+	private ShardContext() {
+	}
+
+	/**
+	 * @return the shard the current thread is working on, null if none
+	 */
+	public static Integer current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Runs the function on the given shard, restoring the previous shard afterwards
+	 * @param shard the shard's index
+	 * 		  function the function to run
+	 * @return the function's result
+	 */
+	public static <T> T call(int shard, Supplier<T> function) {
+		Integer previous = CURRENT.get();
+		CURRENT.set(shard);
+		try {
+			return function.get();
+		} finally {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
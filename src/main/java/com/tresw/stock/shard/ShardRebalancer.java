@@ -0,0 +1,139 @@
+package com.tresw.stock.shard;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds shards and moves stocks between them while the service is running. A stock is moved holding its write
+ * lock, so the requests on that stock wait until it is in the new shard, the rest of the stocks are not
+ * affected.
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.sharding.enabled", havingValue = "true")
+public class ShardRebalancer {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+	@Autowired
+	private ShardRegistry shardRegistry;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	/**
+	 * Adds an empty shard, it gets stocks when they are created or rebalanced
+	 * @param url the shard's jdbc url
+	 * @return the new shard's index
+	 */
+	public int addShard(String url) {
+		return shardRegistry.addShard(url, true);
+	}
+
+	/**
+	 * Moves stocks from the shards with more stocks to the ones with less, until the number of stocks of any
+	 * two shards differ at most in one
+	 * @return number of stocks moved
+	 */
+	public synchronized int rebalance() {
+		int moved = 0;
+		while (true) {
+			int[] counts = shardRouter.getStockCounts();
+			int most = 0;
+			int least = 0;
+			for (int shard = 1; shard < counts.length; shard++) {
+				most = counts[shard] > counts[most] ? shard : most;
+				least = counts[shard] < counts[least] ? shard : least;
+			}
+			if (counts[most] - counts[least] <= 1) {
+				break;
+			}
+			moveStock(shardRouter.getStocks(most).get(0), least);
+			moved++;
+		}
+		log.info("Rebalanced {} stocks", moved);
+		return moved;
+	}
+
+	/**
+	 * Moves the stock, with its products and archived products, to another shard. The rows are copied to the
+	 * target, the directory is updated and then the rows are deleted from the source. If it fails before the
+	 * directory is updated the stock stays in the source, and the rows copied are replaced in the next move.
+	 * @param stockId the stock's id
+	 * 		  target the shard's index
+	 */
+	public synchronized void moveStock(int stockId, int target) {
+		Lock lock = shardRouter.stockLock(stockId).writeLock();
+		lock.lock();
+		try {
+			int source = shardRouter.shardOf(stockId);
+			if (source == target) {
+				return;
+			}
+			JdbcTemplate from = shardRegistry.jdbc(source);
+			JdbcTemplate to = shardRegistry.jdbc(target);
+			shardRegistry.inTransaction(target, () -> {
+				deleteStock(to, stockId);
+				copyRows(from, to, "stock", "id", stockId);
+				copyRows(from, to, "product", "id_stock", stockId);
+				copyRows(from, to, "product_archive", "id_stock", stockId);
+				return null;
+			});
+			//the serials of the products created before sharding are not in the directory yet
+			shardRegistry.inTransaction(ShardRouter.DIRECTORY_SHARD, () -> {
+				registerSerials(from, "product", stockId);
+				registerSerials(from, "product_archive", stockId);
+				return null;
+			});
+			shardRouter.assignShard(stockId, target);
+			shardRegistry.inTransaction(source, () -> {
+				deleteStock(from, stockId);
+				return null;
+			});
+			log.info("Moved stock {} from shard {} to shard {}", stockId, source, target);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void registerSerials(JdbcTemplate from, String table, int stockId) {
+		List<String> serials = from.queryForList("SELECT serial_no FROM " + table + " WHERE id_stock = ?",
+				String.class, stockId);
+		JdbcTemplate directory = shardRegistry.jdbc(ShardRouter.DIRECTORY_SHARD);
+		for (String serial : serials) {
+			directory.update(
+					"INSERT INTO product_directory (serial_no, stock_id) SELECT ?, ? FROM DUAL "
+							+ "WHERE NOT EXISTS (SELECT 1 FROM product_directory WHERE serial_no = ?)",
+					serial, stockId, serial);
+		}
+	}
+
+	private static void deleteStock(JdbcTemplate jdbc, int stockId) {
+		jdbc.update("DELETE FROM product_archive WHERE id_stock = ?", stockId);
+		jdbc.update("DELETE FROM product WHERE id_stock = ?", stockId);
+		jdbc.update("DELETE FROM stock WHERE id = ?", stockId);
+	}
+
+	private static void copyRows(JdbcTemplate from, JdbcTemplate to, String table, String column, int stockId) {
+		for (Map<String, Object> row : from.queryForList("SELECT * FROM " + table + " WHERE " + column + " = ?",
+				stockId)) {
+			StringBuilder columns = new StringBuilder();
+			StringBuilder values = new StringBuilder();
+			for (String name : row.keySet()) {
+				columns.append(columns.length() == 0 ? "" : ", ").append(name);
+				values.append(values.length() == 0 ? "?" : ", ?");
+			}
+			to.update("INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")",
+					row.values().toArray());
+		}
+	}
+}
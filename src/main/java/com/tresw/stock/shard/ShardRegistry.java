@@ -0,0 +1,169 @@
+package com.tresw.stock.shard;
+
+import java.util.function.Supplier;
+
+import javax.persistence.Entity;
+import javax.sql.DataSource;
+
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.domain.Stock;
+
+/**
+ * Keeps the data bases the stocks are partitioned in. Every shard has the whole schema, the directory shard
+ * also holds the directory tables. The ids generated in every shard are unique across all of them, every shard
+ * generates its ids in its own range, so the rows keep their ids when their stock is moved to another shard.
+ * @author alejandro
+ *
+ */
+public class ShardRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardRegistry.class);
+
+	/**
+	 * Maximum number of shards, the range of the ids is split between them
+	 */
+	public static final int MAX_SHARDS = 64;
+
+	/**
+	 * Number of ids of every shard's range
+	 */
+	static final int ID_RANGE = Integer.MAX_VALUE / MAX_SHARDS + 1;
+
+	private final ShardRoutingDataSource routingDataSource;
+	private final DataSourceProperties properties;
+	private final String dialect;
+	private final boolean createSchema;
+
+	public ShardRegistry(DataSourceProperties properties, String dialect, boolean createSchema) {
+		this.routingDataSource = new ShardRoutingDataSource();
+		this.properties = properties;
+		this.dialect = dialect;
+		this.createSchema = createSchema;
+	}
+
+	/**
+	 * Adds a shard, creating its schema if configured to
+	 * @param url the shard's jdbc url
+	 * 		  ready true if the rest of the shards are in use, so the new shard's ids are aligned now
+	 * @return the new shard's index
+	 */
+	public synchronized int addShard(String url, boolean ready) {
+		if (routingDataSource.getShardCount() >= MAX_SHARDS) {
+			throw new IllegalStateException("No more than " + MAX_SHARDS + " shards are supported");
+		}
+		DataSource dataSource = DataSourceBuilder.create().url(url).username(properties.determineUsername())
+				.password(properties.determinePassword()).driverClassName(properties.determineDriverClassName())
+				.build();
+		int shard = routingDataSource.getShardCount();
+		//the directory shard's schema is created by the entity manager factory as usual
+		if (createSchema && shard != ShardRouter.DIRECTORY_SHARD) {
+			createSchema(dataSource);
+		}
+		routingDataSource.addShard(dataSource);
+		if (ready) {
+			alignIds(shard);
+		}
+		log.info("Added shard {} at {}", shard, url);
+		return shard;
+	}
+
+	/**
+	 * Makes the ids generated by every shard unique, starting them above the shard's highest id in its range
+	 */
+	public synchronized void alignIds() {
+		for (int shard = 0; shard < getShardCount(); shard++) {
+			alignIds(shard);
+		}
+	}
+
+	/**
+	 * @return the data source routing the connections to the shards
+	 */
+	public ShardRoutingDataSource getDataSource() {
+		return routingDataSource;
+	}
+
+	public int getShardCount() {
+		return routingDataSource.getShardCount();
+	}
+
+	/**
+	 * @param shard the shard's index
+	 * @return jdbc template working directly on the shard
+	 */
+	public JdbcTemplate jdbc(int shard) {
+		return new JdbcTemplate(routingDataSource.getShard(shard));
+	}
+
+	/**
+	 * Runs the function in a jdbc transaction on the shard
+	 * @param shard the shard's index
+	 * 		  function the function to run
+	 * @return the function's result
+	 */
+	public <T> T inTransaction(int shard, Supplier<T> function) {
+		TransactionTemplate transaction = new TransactionTemplate(
+				new DataSourceTransactionManager(routingDataSource.getShard(shard)));
+		return transaction.execute(status -> function.get());
+	}
+
+	private void alignIds(int shard) {
+		JdbcTemplate jdbc = jdbc(shard);
+		long from = (long) shard * ID_RANGE;
+		long to = from + ID_RANGE;
+		long stockStart = nextId(jdbc, "stock", from, to);
+		//the archived products keep the id they had in the product table
+		long productStart = Math.max(nextId(jdbc, "product", from, to), nextId(jdbc, "product_archive", from, to));
+		jdbc.execute("ALTER TABLE stock ALTER COLUMN id RESTART WITH " + stockStart);
+		jdbc.execute("ALTER TABLE product ALTER COLUMN id RESTART WITH " + productStart);
+	}
+
+	private static long nextId(JdbcTemplate jdbc, String table, long from, long to) {
+		Long max = jdbc.queryForObject("SELECT MAX(id) FROM " + table + " WHERE id >= ? AND id < ?", Long.class,
+				from, to);
+		return max == null ? Math.max(from, 1) : max + 1;
+	}
+
+	/**
+	 * Creates the tables of all the entities that are missing in the shard, keeping the existing data
+	 */
+	private void createSchema(DataSource dataSource) {
+		StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+				.applySetting(AvailableSettings.DIALECT, dialect)
+				.applySetting(AvailableSettings.DATASOURCE, dataSource)
+				.applySetting(AvailableSettings.USE_NEW_ID_GENERATOR_MAPPINGS, "false").build();
+		try {
+			MetadataSources sources = new MetadataSources(registry);
+			ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(
+					false);
+			scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+			for (BeanDefinition entity : scanner.findCandidateComponents(Stock.class.getPackage().getName())) {
+				sources.addAnnotatedClassName(entity.getBeanClassName());
+			}
+			MetadataImplementor metadata = (MetadataImplementor) sources.getMetadataBuilder()
+					.applyImplicitNamingStrategy(new SpringImplicitNamingStrategy())
+					.applyPhysicalNamingStrategy(new SpringPhysicalNamingStrategy()).build();
+			new SchemaUpdate(registry, metadata).execute(false, true);
+		} finally {
+			StandardServiceRegistryBuilder.destroy(registry);
+		}
+	}
+}
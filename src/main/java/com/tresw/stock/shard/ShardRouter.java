@@ -0,0 +1,430 @@
+package com.tresw.stock.shard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.domain.ProductDirectoryEntry;
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockShard;
+import com.tresw.stock.repository.ArchivedProductRepository;
+import com.tresw.stock.repository.ProductDirectoryRepository;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.repository.StockShardRepository;
+import com.tresw.stock.trace.SqlTrace;
+
+/**
+ * Routes the data base work of the stock service to the shard holding the data. A stock and all its products
+ * are stored in the same shard, the stocks shards are kept in memory and in the directory shard, which also
+ * keeps the stock of every serial number.
+ * 
+ * The work on a shard runs in its own transaction. Work for a single stock also holds the stock's read lock,
+ * so the stock can be moved to another shard while the rest of the stocks are in use.
+ * 
+ * When sharding is not enabled the work just runs on the only data base.
+ * @author alejandro
+ *
+ */
+@Component
+public class ShardRouter {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardRouter.class);
+
+	/**
+	 * The shard holding the directory, and the data not sharded
+	 */
+	public static final int DIRECTORY_SHARD = 0;
+
+	private static final int LOCK_STRIPES = 1024;
+
+	@Autowired(required = false)
+	private ShardRegistry shardRegistry;
+
+	@Autowired
+	private StockShardRepository stockShardRepository;
+
+	@Autowired
+	private ProductDirectoryRepository productDirectoryRepository;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ArchivedProductRepository archivedProductRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate shardTransaction;
+
+	private ExecutorService fanOut;
+
+	private final ConcurrentMap<Integer, Integer> stockShards = new ConcurrentHashMap<>();
+
+	private final ReadWriteLock[] stockLocks = new ReadWriteLock[LOCK_STRIPES];
+
+	@PostConstruct
+	public void init() {
+		shardTransaction = new TransactionTemplate(transactionManager);
+		shardTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			stockLocks[i] = new ReentrantReadWriteLock();
+		}
+		if (isEnabled()) {
+			fanOut = Executors.newCachedThreadPool();
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (fanOut != null) {
+			fanOut.shutdown();
+		}
+	}
+
+	/**
+	 * Aligns the shards ids and loads the directory. The stocks of the directory shard that are not in the
+	 * directory yet, the ones created before sharding was enabled, are registered there.
+	 */
+	@Order(0)
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadDirectory() {
+		if (!isEnabled()) {
+			return;
+		}
+		shardRegistry.alignIds();
+		onShard(DIRECTORY_SHARD, () -> {
+			for (StockShard stockShard : stockShardRepository.findAll()) {
+				stockShards.put(stockShard.getStockId(), stockShard.getShard());
+			}
+			List<StockShard> adopted = new ArrayList<>();
+			for (Integer stockId : stockRepository.findAllIds()) {
+				if (!stockShards.containsKey(stockId)) {
+					adopted.add(new StockShard(stockId, DIRECTORY_SHARD));
+					stockShards.put(stockId, DIRECTORY_SHARD);
+				}
+			}
+			stockShardRepository.save(adopted);
+			return null;
+		});
+		log.info("Shard directory loaded, {} stocks in {} shards", stockShards.size(), getShardCount());
+	}
+
+	public boolean isEnabled() {
+		return shardRegistry != null;
+	}
+
+	public int getShardCount() {
+		return isEnabled() ? shardRegistry.getShardCount() : 1;
+	}
+
+	/**
+	 * Runs the function on the shard holding the stock
+	 * @param stockId the stock's id
+	 * 		  function the function to run
+	 * @return the function's result
+	 */
+	public <T> T onStock(int stockId, Supplier<T> function) {
+		if (!isEnabled()) {
+			return function.get();
+		}
+		Lock lock = stockLock(stockId).readLock();
+		lock.lock();
+		try {
+			return onShard(shardOf(stockId), function);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the function on the shard holding the product, holding its stock's read lock as {@link #onStock}.
+	 * The products created before sharding was enabled are not in the directory, their stock is found in the
+	 * directory shard. The function runs on the directory shard, without lock, if the product does not exist.
+	 * @param serial the product's serial number
+	 * 		  function the function to run
+	 * @return the function's result
+	 */
+	public <T> T onSerial(String serial, Supplier<T> function) {
+		if (!isEnabled()) {
+			return function.get();
+		}
+		Integer stockId = onShard(DIRECTORY_SHARD, () -> {
+			ProductDirectoryEntry entry = productDirectoryRepository.findOne(serial);
+			if (entry != null) {
+				return entry.getStockId();
+			}
+			Integer unregistered = productRepository.findStockIdBySerialNo(serial);
+			return unregistered != null ? unregistered : archivedProductRepository.findStockIdBySerialNo(serial);
+		});
+		//a stock moved meanwhile is found in its new shard, the move registers its serials
+		return stockId == null ? onShard(DIRECTORY_SHARD, function) : onStock(stockId, function);
+	}
+
+	/**
+	 * Creates a stock in the shard with fewer stocks and registers it in the directory
+	 * @param save the function saving the stock
+	 * @return the stock saved
+	 */
+	public Stock onNewStock(Supplier<Stock> save) {
+		if (!isEnabled()) {
+			return save.get();
+		}
+		int shard = leastLoadedShard();
+		Stock stock = onShard(shard, save);
+		onShard(DIRECTORY_SHARD, () -> stockShardRepository.save(new StockShard(stock.getId(), shard)));
+		stockShards.put(stock.getId(), shard);
+		return stock;
+	}
+
+	/**
+	 * Registers the serial number in the directory, it fails if it is already registered
+	 * @param serial the product's serial number
+	 * 		  stockId the product's stock
+	 * @return false if the serial number was already registered
+	 */
+	public boolean registerSerial(String serial, int stockId) {
+		if (!isEnabled()) {
+			return true;
+		}
+		try {
+			return onShard(DIRECTORY_SHARD, () -> {
+				if (productDirectoryRepository.exists(serial)) {
+					return false;
+				}
+				productDirectoryRepository.save(new ProductDirectoryEntry(serial, stockId));
+				return true;
+			});
+		} catch (DataIntegrityViolationException e) {
+			return false; //registered concurrently
+		}
+	}
+
+	/**
+	 * Removes the serial number from the directory
+	 * @param serial the product's serial number
+	 */
+	public void unregisterSerial(String serial) {
+		if (isEnabled()) {
+			onShard(DIRECTORY_SHARD, () -> {
+				productDirectoryRepository.delete(serial);
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * Runs the function once per shard holding any of the stocks, with the ids of its stocks
+	 * @param stockIds the stocks ids
+	 * 		  function the function to run
+	 * @return the results of all the shards
+	 */
+	public <T> List<T> onStocks(Collection<Integer> stockIds, Function<List<Integer>, List<T>> function) {
+		if (!isEnabled()) {
+			return function.apply(new ArrayList<>(stockIds));
+		}
+		Map<Integer, List<Integer>> byShard = new HashMap<>();
+		for (Integer stockId : stockIds) {
+			byShard.computeIfAbsent(shardOf(stockId), shard -> new ArrayList<>()).add(stockId);
+		}
+		List<T> results = new ArrayList<>();
+		for (Map.Entry<Integer, List<Integer>> shard : byShard.entrySet()) {
+			results.addAll(onShard(shard.getKey(), () -> function.apply(shard.getValue())));
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the function on every shard in parallel, each one in its own transaction
+	 * @param function the function to run
+	 * @return the result of every shard
+	 */
+	public <T> List<T> onAllShards(Supplier<T> function) {
+		if (!isEnabled()) {
+			return Collections.singletonList(function.get());
+		}
+		List<CompletableFuture<T>> futures = new ArrayList<>();
+		SqlTrace trace = SqlTrace.current(); //the statements run for the request are added to its trace
+		for (int shard = 0; shard < getShardCount(); shard++) {
+			int current = shard;
+			futures.add(CompletableFuture.supplyAsync(() -> SqlTrace.call(trace, () -> onShard(current, function)),
+					fanOut));
+		}
+		List<T> results = new ArrayList<>();
+		try {
+			for (CompletableFuture<T> future : futures) {
+				results.add(future.join());
+			}
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the function on every shard in turn, without opening a transaction, so the function can split its
+	 * work in several transactions
+	 * @param function the function to run
+	 * @return the result of every shard
+	 */
+	public <T> List<T> eachShard(Supplier<T> function) {
+		if (!isEnabled()) {
+			return Collections.singletonList(function.get());
+		}
+		List<T> results = new ArrayList<>();
+		for (int shard = 0; shard < getShardCount(); shard++) {
+			results.add(ShardContext.call(shard, function));
+		}
+		return results;
+	}
+
+	/**
+	 * Gets a page of elements from all the shards. Every shard returns its first elements up to the end of
+	 * the page, they are merged by the page's sort and the page is cut from the merged list.
+	 * @param pageable the page to get
+	 * 		  find the function finding a page in a shard
+	 * @return the page
+	 */
+	public <T> Page<T> findPage(Pageable pageable, Function<Pageable, Page<T>> find) {
+		if (!isEnabled()) {
+			return find.apply(pageable);
+		}
+		Pageable top = new PageRequest(0, pageable.getOffset() + pageable.getPageSize(), pageable.getSort());
+		List<T> merged = new ArrayList<>();
+		long total = 0;
+		for (Page<T> page : onAllShards(() -> find.apply(top))) {
+			merged.addAll(page.getContent());
+			total += page.getTotalElements();
+		}
+		if (pageable.getSort() != null) {
+			merged.sort(comparator(pageable.getSort()));
+		}
+		int from = Math.min(pageable.getOffset(), merged.size());
+		int to = Math.min(from + pageable.getPageSize(), merged.size());
+		return new PageImpl<>(new ArrayList<>(merged.subList(from, to)), pageable, total);
+	}
+
+	/**
+	 * @param stockId the stock's id
+	 * @return the shard holding the stock, the directory shard if it is unknown
+	 */
+	public int shardOf(int stockId) {
+		Integer shard = stockShards.get(stockId);
+		return shard == null ? DIRECTORY_SHARD : shard;
+	}
+
+	/**
+	 * @return number of stocks held by every shard
+	 */
+	public int[] getStockCounts() {
+		int[] counts = new int[getShardCount()];
+		for (Integer shard : stockShards.values()) {
+			counts[shard]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * @param shard the shard's index
+	 * @return the ids of the stocks held by the shard
+	 */
+	public List<Integer> getStocks(int shard) {
+		List<Integer> stockIds = new ArrayList<>();
+		for (Map.Entry<Integer, Integer> entry : stockShards.entrySet()) {
+			if (entry.getValue() == shard) {
+				stockIds.add(entry.getKey());
+			}
+		}
+		return stockIds;
+	}
+
+	/**
+	 * Runs the function on the shard, in its own transaction
+	 */
+	<T> T onShard(int shard, Supplier<T> function) {
+		return ShardContext.call(shard, () -> shardTransaction.execute(status -> function.get()));
+	}
+
+	/**
+	 * Changes the shard of a stock in the directory, the caller must hold the stock's write lock
+	 */
+	void assignShard(int stockId, int shard) {
+		onShard(DIRECTORY_SHARD, () -> stockShardRepository.save(new StockShard(stockId, shard)));
+		stockShards.put(stockId, shard);
+	}
+
+	ReadWriteLock stockLock(int stockId) {
+		return stockLocks[Math.floorMod(stockId, LOCK_STRIPES)];
+	}
+
+	private int leastLoadedShard() {
+		int[] counts = getStockCounts();
+		int least = 0;
+		for (int shard = 1; shard < counts.length; shard++) {
+			if (counts[shard] < counts[least]) {
+				least = shard;
+			}
+		}
+		return least;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> Comparator<T> comparator(Sort sort) {
+		Comparator<T> comparator = (a, b) -> 0;
+		for (Sort.Order order : sort) {
+			Comparator<T> property = (a, b) -> {
+				Comparable va = (Comparable) new BeanWrapperImpl(a).getPropertyValue(order.getProperty());
+				Comparable vb = (Comparable) new BeanWrapperImpl(b).getPropertyValue(order.getProperty());
+				if (va == null || vb == null) {
+					return va == null ? (vb == null ? 0 : -1) : 1;
+				}
+				return va.compareTo(vb);
+			};
+			comparator = comparator.thenComparing(order.isAscending() ? property : property.reversed());
+		}
+		return comparator;
+	}
+}
@@ -0,0 +1,58 @@
+package com.tresw.stock.shard;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * Data source giving connections to the shard set in the ShardContext, or to the directory shard if none is
+ * set. Shards can be added while it is in use.
+ * @author alejandro
+ *
+ */
+public class ShardRoutingDataSource extends AbstractDataSource {
+
+	private final List<DataSource> shards = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Adds a shard
+	 * @param dataSource the shard's data source
+	 * @return the new shard's index
+	 */
+	public synchronized int addShard(DataSource dataSource) {
+		shards.add(dataSource);
+		return shards.size() - 1;
+	}
+
+	/**
+	 * @param shard the shard's index
+	 * @return the shard's own data source
+	 */
+	public DataSource getShard(int shard) {
+		return shards.get(shard);
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return target().getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return target().getConnection(username, password);
+	}
+
+	private DataSource target() {
+		Integer shard = ShardContext.current();
+		return shards.get(shard == null ? ShardRouter.DIRECTORY_SHARD : shard);
+	}
+}
@@ -0,0 +1,38 @@
+package com.tresw.stock.shard;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Replaces the data source by one routing every connection to the shard the thread is working on. The first
+ * url is the directory shard, the data of an unsharded data base stays there until it is rebalanced.
+ * @author alejandro
+ *
+ */
+@Configuration
+@ConditionalOnProperty(name = "stock.sharding.enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+	@Bean
+	public ShardRegistry shardRegistry(DataSourceProperties properties, @Value("${stock.sharding.urls}") String[] urls,
+			@Value("${spring.jpa.database-platform}") String dialect,
+			@Value("${stock.sharding.create-schema:true}") boolean createSchema) {
+		ShardRegistry registry = new ShardRegistry(properties, dialect, createSchema);
+		for (String url : urls) {
+			registry.addShard(url.trim(), false);
+		}
+		return registry;
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(ShardRegistry shardRegistry) {
+		return shardRegistry.getDataSource();
+	}
+}
@@ -0,0 +1,66 @@
+package com.tresw.stock.trace;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * A SQL statement executed while tracing a request
+ * @author alejandro
+ *
+ */
+@JsonInclude(value = Include.NON_NULL)
+public class SqlStatement {
+
+	private final String sql;
+	private final String repository;
+	private final long offsetMicros;
+	private long durationMicros;
+	private long rows;
+
+	SqlStatement(String sql, String repository, long offsetMicros) {
+		this.sql = sql;
+		this.repository = repository;
+		this.offsetMicros = offsetMicros;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the repository method running the statement, null if it was run outside the repositories, as the
+	 * 		   lazy loads of the entities
+	 */
+	public String getRepository() {
+		return repository;
+	}
+
+	/**
+	 * @return microseconds from the start of the request to the statement's execution
+	 */
+	public long getOffsetMicros() {
+		return offsetMicros;
+	}
+
+	/**
+	 * @return microseconds the execution took, without reading the rows
+	 */
+	public long getDurationMicros() {
+		return durationMicros;
+	}
+
+	void setDurationMicros(long durationMicros) {
+		this.durationMicros = durationMicros;
+	}
+
+	/**
+	 * @return rows read from the result, or rows updated
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	void addRows(long rows) {
+		this.rows += rows;
+	}
+}
@@ -0,0 +1,235 @@
+package com.tresw.stock.trace;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The SQL statements executed by a request, with the statements that repeat enough in the same shard to be an N+1
+ * pattern and the ones slower than the threshold. A select run once in every shard by a fan-out is not repeated.
+ * The statements run by the request in other threads are added to its trace when the work is handed over with
+ * {@link #call(SqlTrace, Supplier)}.
+ * @author alejandro
+ *
+ */
+public class SqlTrace {
+
+	private static final ThreadLocal<SqlTrace> CURRENT = new ThreadLocal<>();
+
+	private final String method;
+	private final String uri;
+	private final Date started = new Date();
+	private final long startNanos = System.nanoTime();
+	private final int maxStatements;
+	private final long slowStatementMicros;
+	private long durationMillis;
+	private int status;
+	private int statementCount;
+	private long sqlMicros;
+	private int slowStatements;
+	private final List<SqlStatement> statements = new ArrayList<>();
+	private final Map<String, Repeated> repeated = new LinkedHashMap<>();
+	private final List<Repeated> nPlusOne = new ArrayList<>();
+
+	SqlTrace(String method, String uri, int maxStatements, long slowStatementMicros) {
+		this.method = method;
+		this.uri = uri;
+		this.maxStatements = maxStatements;
+		this.slowStatementMicros = slowStatementMicros;
+	}
+
+	/**
+	 * @return the trace of the request the current thread is working for, null if none
+	 */
+	public static SqlTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Runs the function adding its statements to the trace, restoring the previous trace afterwards
+	 * @param trace the trace, null to run it without tracing
+	 * 		  function the function to run
+	 * @return the function's result
+	 */
+	public static <T> T call(SqlTrace trace, Supplier<T> function) {
+		SqlTrace previous = enter(trace);
+		try {
+			return function.get();
+		} finally {
+			exit(previous);
+		}
+	}
+
+	/**
+	 * Sets the trace of the current thread
+	 * @param trace the trace, null to stop tracing
+	 * @return the previous trace, to be restored with {@link #exit(SqlTrace)}
+	 */
+	public static SqlTrace enter(SqlTrace trace) {
+		SqlTrace previous = CURRENT.get();
+		if (trace == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(trace);
+		}
+		return previous;
+	}
+
+	/**
+	 * Restores the trace the current thread had before {@link #enter(SqlTrace)}
+	 * @param previous the previous trace, null if none
+	 */
+	public static void exit(SqlTrace previous) {
+		enter(previous);
+	}
+
+	/**
+	 * Registers a statement about to be executed, it is only kept in the list if there is room
+	 * @param sql the statement
+	 * 		  repository the repository method running it, null if none
+	 * 		  shard the shard it runs on, null if not sharded
+	 * @return the statement to complete with its duration and rows
+	 */
+	synchronized SqlStatement start(String sql, String repository, Integer shard) {
+		SqlStatement statement = new SqlStatement(sql, repository, (System.nanoTime() - startNanos) / 1000);
+		statementCount++;
+		if (statements.size() < maxStatements) {
+			statements.add(statement);
+		}
+		String key = shard == null ? sql : shard + ":" + sql;
+		Repeated same = repeated.get(key);
+		if (same == null) {
+			repeated.put(key, new Repeated(sql, repository, shard));
+		} else {
+			same.count++;
+		}
+		return statement;
+	}
+
+	/**
+	 * Records the time a statement took to execute
+	 * @param statement the statement
+	 * 		  durationMicros the microseconds it took
+	 */
+	synchronized void executed(SqlStatement statement, long durationMicros) {
+		statement.setDurationMicros(durationMicros);
+		sqlMicros += durationMicros;
+		if (durationMicros >= slowStatementMicros) {
+			slowStatements++;
+		}
+	}
+
+	/**
+	 * Completes the trace, flagging the select statements repeated at least the given times
+	 */
+	synchronized void finish(int status, int nPlusOneCount) {
+		this.status = status;
+		durationMillis = (System.nanoTime() - startNanos) / 1000000;
+		for (Repeated same : repeated.values()) {
+			if (same.count >= nPlusOneCount && same.sql.regionMatches(true, 0, "select", 0, 6)) {
+				nPlusOne.add(same);
+			}
+		}
+		repeated.clear();
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return number of statements executed, the list may keep fewer
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	/**
+	 * @return microseconds spent executing the statements
+	 */
+	public long getSqlMicros() {
+		return sqlMicros;
+	}
+
+	public int getSlowStatements() {
+		return slowStatements;
+	}
+
+	@JsonProperty("nPlusOne")
+	public List<Repeated> getNPlusOne() {
+		return nPlusOne;
+	}
+
+	public List<SqlStatement> getStatements() {
+		return statements;
+	}
+
+	@JsonIgnore
+	public boolean isFlagged() {
+		return slowStatements > 0 || !nPlusOne.isEmpty();
+	}
+
+	/**
+	 * A statement executed several times by the request
+	 */
+	@JsonInclude(value = Include.NON_NULL)
+	public static class Repeated {
+
+		private final String sql;
+		private final String repository;
+		private final Integer shard;
+		private int count = 1;
+
+		Repeated(String sql, String repository, Integer shard) {
+			this.sql = sql;
+			this.repository = repository;
+			this.shard = shard;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * @return the repository method that ran it first
+		 */
+		public String getRepository() {
+			return repository;
+		}
+
+		/**
+		 * @return the shard it was repeated on, null if not sharded
+		 */
+		public Integer getShard() {
+			return shard;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+}
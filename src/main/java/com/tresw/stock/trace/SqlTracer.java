@@ -0,0 +1,136 @@
+package com.tresw.stock.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Traces the SQL statements of every request and keeps the last slow or flagged traces in a ring buffer. A trace
+ * is kept when the request took longer than the slow request threshold, when one of its statements took longer
+ * than the slow statement threshold or when a select was repeated enough times to be an N+1 pattern.
+ * @author alejandro
+ *
+ */
+@Component
+public class SqlTracer {
+
+	private static final ThreadLocal<String> REPOSITORY = new ThreadLocal<>();
+
+	@Value("${stock.trace.enabled:false}")
+	private boolean enabled;
+
+	@Value("${stock.trace.slow-request:500}")
+	private long slowRequestMillis;
+
+	@Value("${stock.trace.slow-statement:100}")
+	private long slowStatementMillis;
+
+	@Value("${stock.trace.n-plus-one:5}")
+	private int nPlusOneCount;
+
+	@Value("${stock.trace.max-statements:200}")
+	private int maxStatements;
+
+	@Value("${stock.trace.buffer-size:100}")
+	private int bufferSize;
+
+	private AtomicReferenceArray<SqlTrace> buffer;
+
+	private final AtomicLong kept = new AtomicLong();
+
+	private final LongAdder traced = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		buffer = new AtomicReferenceArray<>(bufferSize);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts the trace of a request
+	 * @param method the request's method
+	 * 		  uri the request's uri
+	 * @return the trace, to be run with {@link SqlTrace#call(SqlTrace, java.util.function.Supplier)}
+	 */
+	public SqlTrace begin(String method, String uri) {
+		return new SqlTrace(method, uri, maxStatements, slowStatementMillis * 1000);
+	}
+
+	/**
+	 * Completes the trace of a request, keeping it if it was slow or flagged
+	 * @param trace the trace
+	 * 		  status the response's status
+	 */
+	public void finish(SqlTrace trace, int status) {
+		trace.finish(status, nPlusOneCount);
+		traced.increment();
+		if (trace.getDurationMillis() >= slowRequestMillis || trace.isFlagged()) {
+			buffer.set((int) (kept.getAndIncrement() % bufferSize), trace);
+		}
+	}
+
+	/**
+	 * @return the traces kept, the newest first
+	 */
+	public List<SqlTrace> getSlowTraces() {
+		List<SqlTrace> traces = new ArrayList<>();
+		long last = kept.get();
+		for (long i = last - 1; i >= 0 && i >= last - bufferSize; i--) {
+			SqlTrace trace = buffer.get((int) (i % bufferSize));
+			if (trace != null) {
+				traces.add(trace);
+			}
+		}
+		return traces;
+	}
+
+	/**
+	 * @return number of requests traced
+	 */
+	public long getTraced() {
+		return traced.sum();
+	}
+
+	/**
+	 * @return number of traces kept since the start, the buffer only holds the last ones
+	 */
+	public long getKept() {
+		return kept.get();
+	}
+
+	/**
+	 * @return the repository method the current thread is running, null if none
+	 */
+	static String currentRepository() {
+		return REPOSITORY.get();
+	}
+
+	/**
+	 * Sets the repository method the current thread is running
+	 * @param repository the repository method, null if none
+	 * @return the previous one, to be restored when the method returns
+	 */
+	static String enterRepository(String repository) {
+		String previous = REPOSITORY.get();
+		REPOSITORY.set(repository);
+		return previous;
+	}
+
+	static void exitRepository(String previous) {
+		if (previous == null) {
+			REPOSITORY.remove();
+		} else {
+			REPOSITORY.set(previous);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.tresw.stock.trace;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.InfrastructureProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.tresw.stock.shard.ShardContext;
+
+/**
+ * Data source recording in the current request's trace the statements executed on its connections, with the
+ * time every execution takes and the rows read or updated. The connections taken outside a traced request are
+ * returned as they are, so the background jobs do not pay for the tracing.
+ * <p>
+ * It is an infrastructure proxy, so the transactions bound to it are found through the target data source too.
+ * @author alejandro
+ *
+ */
+public class TracingDataSource extends DelegatingDataSource implements InfrastructureProxy {
+
+	public TracingDataSource(DataSource target) {
+		super(target);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return trace(super.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return trace(super.getConnection(username, password));
+	}
+
+	@Override
+	public Object getWrappedObject() {
+		return getTargetDataSource();
+	}
+
+	private static Connection trace(Connection connection) {
+		return SqlTrace.current() == null ? connection : new TracingConnection(connection, ShardContext.current());
+	}
+}
@@ -0,0 +1,44 @@
+package com.tresw.stock.trace;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Traces the SQL statements of every request, the rendering of the response included
+ * @author alejandro
+ *
+ */
+@Component
+public class TracingFilter extends OncePerRequestFilter {
+
+	@Autowired
+	private SqlTracer sqlTracer;
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (!sqlTracer.isEnabled()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		SqlTrace trace = sqlTracer.begin(request.getMethod(), request.getRequestURI());
+		SqlTrace previous = SqlTrace.enter(trace);
+		boolean completed = false;
+		try {
+			chain.doFilter(request, response);
+			completed = true;
+		} finally {
+			SqlTrace.exit(previous);
+			//an exception thrown out of the chain is answered by the container with an error
+			sqlTracer.finish(trace, completed ? response.getStatus() : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+}
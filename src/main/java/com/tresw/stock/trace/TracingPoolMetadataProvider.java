@@ -0,0 +1,31 @@
+package com.tresw.stock.trace;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.TomcatDataSourcePoolMetadata;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the metadata of the connection pool wrapped by the tracing data source, so the pool metrics
+ * (datasource.primary.active and usage) are still published while the statements are traced
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.trace.enabled", havingValue = "true")
+public class TracingPoolMetadataProvider implements DataSourcePoolMetadataProvider {
+
+	@Override
+	public DataSourcePoolMetadata getDataSourcePoolMetadata(DataSource dataSource) {
+		if (dataSource instanceof TracingDataSource) {
+			DataSource target = ((TracingDataSource) dataSource).getTargetDataSource();
+			if (target instanceof org.apache.tomcat.jdbc.pool.DataSource) {
+				return new TomcatDataSourcePoolMetadata((org.apache.tomcat.jdbc.pool.DataSource) target);
+			}
+		}
+		return null;
+	}
+}
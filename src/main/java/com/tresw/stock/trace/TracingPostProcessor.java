@@ -0,0 +1,47 @@
+package com.tresw.stock.trace;
+
+import javax.sql.DataSource;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps the data source to trace the statements it executes, and the repositories to label every statement
+ * with the repository method that ran it
+ * @author alejandro
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "stock.trace.enabled", havingValue = "true")
+public class TracingPostProcessor implements BeanPostProcessor {
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		if (bean instanceof DataSource && !(bean instanceof TracingDataSource)) {
+			return new TracingDataSource((DataSource) bean);
+		}
+		if (bean instanceof Repository && bean instanceof Advised) {
+			Advised repository = (Advised) bean;
+			String name = repository.getProxiedInterfaces()[0].getSimpleName();
+			repository.addAdvice(0, (MethodInterceptor) invocation -> {
+				String previous = SqlTracer.enterRepository(name + "." + invocation.getMethod().getName());
+				try {
+					return invocation.proceed();
+				} finally {
+					SqlTracer.exitRepository(previous);
+				}
+			});
+		}
+		return bean;
+	}
+}
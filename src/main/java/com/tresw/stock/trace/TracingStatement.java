@@ -0,0 +1,346 @@
+package com.tresw.stock.trace;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Statement recording its executions in the current request's trace, with the time every execution takes and
+ * the rows read or updated
+ * @author alejandro
+ *
+ */
+class TracingStatement implements Statement {
+
+	private final Statement statement;
+	final String prepared;
+	private final Integer shard;
+	private SqlStatement last;
+	private TracingResultSet resultSet;
+
+	TracingStatement(Statement statement, String prepared, Integer shard) {
+		this.statement = statement;
+		this.prepared = prepared;
+		this.shard = shard;
+	}
+
+	/**
+	 * Runs an execution of the statement, recording it in the current request's trace
+	 * @param sql the statement executed, null for a batch of statements
+	 * 		  execution the execution
+	 * @return the execution's result
+	 */
+	<T> T execute(String sql, Execution<T> execution) throws SQLException {
+		SqlTrace trace = SqlTrace.current();
+		if (trace == null) {
+			last = null;
+			return execution.run();
+		}
+		last = trace.start(sql == null ? "(batch)" : sql, SqlTracer.currentRepository(), shard);
+		long start = System.nanoTime();
+		T result = execution.run();
+		trace.executed(last, (System.nanoTime() - start) / 1000);
+		return result;
+	}
+
+	/**
+	 * @return the result set counting the rows read in the last traced execution
+	 */
+	ResultSet traced(ResultSet result) {
+		if (last == null || result == null) {
+			return result;
+		}
+		if (resultSet == null || resultSet.getResultSet() != result) {
+			resultSet = new TracingResultSet(result, last);
+		}
+		return resultSet;
+	}
+
+	<T> T updated(T result) {
+		if (last == null) {
+			return result;
+		}
+		if (result instanceof Number) {
+			last.addRows(((Number) result).longValue());
+		} else if (result instanceof int[]) {
+			for (int count : (int[]) result) {
+				last.addRows(Math.max(0, count));
+			}
+		} else if (result instanceof long[]) {
+			for (long count : (long[]) result) {
+				last.addRows(Math.max(0, count));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * An execution of the statement
+	 */
+	interface Execution<T> {
+
+		T run() throws SQLException;
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return traced(execute(sql, () -> statement.executeQuery(sql)));
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return updated(execute(sql, () -> statement.executeUpdate(sql)));
+	}
+
+	@Override
+	public void close() throws SQLException {
+		statement.close();
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return statement.getMaxFieldSize();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		statement.setMaxFieldSize(max);
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return statement.getMaxRows();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		statement.setMaxRows(max);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		statement.setEscapeProcessing(enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return statement.getQueryTimeout();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		statement.setQueryTimeout(seconds);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		statement.cancel();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return statement.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		statement.clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		statement.setCursorName(name);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		return execute(sql, () -> statement.execute(sql));
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return traced(statement.getResultSet());
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return statement.getUpdateCount();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return statement.getMoreResults();
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		statement.setFetchDirection(direction);
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return statement.getFetchDirection();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		statement.setFetchSize(rows);
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return statement.getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return statement.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return statement.getResultSetType();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		statement.addBatch(sql);
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		statement.clearBatch();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return updated(execute(prepared, () -> statement.executeBatch()));
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return statement.getConnection();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return statement.getMoreResults(current);
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return statement.getGeneratedKeys();
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return updated(execute(sql, () -> statement.executeUpdate(sql, autoGeneratedKeys)));
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return updated(execute(sql, () -> statement.executeUpdate(sql, columnIndexes)));
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		return updated(execute(sql, () -> statement.executeUpdate(sql, columnNames)));
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		return execute(sql, () -> statement.execute(sql, autoGeneratedKeys));
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		return execute(sql, () -> statement.execute(sql, columnIndexes));
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		return execute(sql, () -> statement.execute(sql, columnNames));
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return statement.getResultSetHoldability();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return statement.isClosed();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		statement.setPoolable(poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return statement.isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		statement.closeOnCompletion();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return statement.isCloseOnCompletion();
+	}
+
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		return statement.getLargeUpdateCount();
+	}
+
+	@Override
+	public void setLargeMaxRows(long max) throws SQLException {
+		statement.setLargeMaxRows(max);
+	}
+
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		return statement.getLargeMaxRows();
+	}
+
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		return updated(execute(prepared, () -> statement.executeLargeBatch()));
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		return updated(execute(sql, () -> statement.executeLargeUpdate(sql)));
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return updated(execute(sql, () -> statement.executeLargeUpdate(sql, autoGeneratedKeys)));
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return updated(execute(sql, () -> statement.executeLargeUpdate(sql, columnIndexes)));
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		return updated(execute(sql, () -> statement.executeLargeUpdate(sql, columnNames)));
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return statement.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return statement.isWrapperFor(iface);
+	}
+}
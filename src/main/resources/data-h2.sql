@@ -1,9 +1,9 @@
 delete from stock;
 delete from product;
 
-INSERT INTO STOCK VALUES (1, 'iphone model 6', 'Iphone 6', 999, 2, 'phone');
+INSERT INTO STOCK (id, long_description, name, price, quantity, short_description, in_stock, reserved, sold) VALUES (1, 'iphone model 6', 'Iphone 6', 999, 2, 'phone', 2, 0, 0);
 
-INSERT INTO STOCK VALUES (2 , 'samsung model 6', 's8', 789, 2, 'phone');
+INSERT INTO STOCK (id, long_description, name, price, quantity, short_description, in_stock, reserved, sold) VALUES (2 , 'samsung model 6', 's8', 789, 2, 'phone', 2, 0, 0);
 
 insert into product values (1,'1',  'IN_STOCK',1);
 insert into product values (2,'2', 'IN_STOCK',1);
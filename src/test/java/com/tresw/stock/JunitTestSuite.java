@@ -3,11 +3,20 @@ package com.tresw.stock;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import com.tresw.stock.cluster.LeaseManagerTest;
 import com.tresw.stock.controller.StockControllerTest;
+import com.tresw.stock.service.SalesWindowTest;
+import com.tresw.stock.service.SingleFlightTest;
 import com.tresw.stock.service.StockServiceTest;
+import com.tresw.stock.service.TokenBucketTest;
+import com.tresw.stock.shard.ShardRouterTest;
+import com.tresw.stock.trace.SqlTracerTest;
+import com.tresw.stock.trace.TracingConnectionTest;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ StockControllerTest.class, StockServiceTest.class })
+@Suite.SuiteClasses({ StockControllerTest.class, StockServiceTest.class, TokenBucketTest.class,
+		SingleFlightTest.class, ShardRouterTest.class, LeaseManagerTest.class,
+		SqlTracerTest.class, SalesWindowTest.class, TracingConnectionTest.class })
 public class JunitTestSuite {
 
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.tresw.stock.cluster;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.repository.StockLeaseRepository;
+import com.tresw.stock.repository.StockRepository;
+import com.tresw.stock.service.StockService;
+
+@SpringBootTest(properties = { "stock.cluster.enabled=true",
+		"spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1", "stock.cluster.renew-interval=600000" })
+@RunWith(SpringJUnit4ClassRunner.class)
+public class LeaseManagerTest {
+
+	@Autowired
+	private LeaseManager leaseManager;
+
+	@Autowired
+	private StockService stockService;
+
+	@Autowired
+	private StockLeaseRepository stockLeaseRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Before
+	public void heartbeat() {
+		leaseManager.heartbeat();
+	}
+
+	//Tests a single instance owns all the partitions
+	@Test
+	public void ownsAllPartitions() {
+		Assert.assertEquals(64, leaseManager.getOwnedPartitions().size());
+		Assert.assertTrue(leaseManager.owns(1));
+		Assert.assertNull(leaseManager.ownerUrl(1));
+	}
+
+	//Tests the changes applied by the owner in memory are persisted when the operation returns
+	@Test
+	public void changesPersisted() {
+		stockService.addProduct(1, "cl-1");
+		int sold = stockRepository.findOne(1).getSold();
+		stockService.sellProduct("cl-1");
+		Assert.assertEquals(Status.SOLD, productRepository.findBySerialNo("cl-1").getStatus());
+		Assert.assertEquals(sold + 1, stockRepository.findOne(1).getSold());
+	}
+
+	//Tests the stocks of a lease taken by another instance are not modified by this one
+	@Test
+	public void leaseOwnedByOtherInstance() {
+		int partition = leaseManager.partitionOf(2);
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		transaction.execute(status -> {
+			long now = System.currentTimeMillis();
+			stockLeaseRepository.release(partition, leaseManager.getInstanceId());
+			return stockLeaseRepository.acquire(partition, "other", "http://other:8080", now + 60000, now);
+		});
+		leaseManager.heartbeat();
+		try {
+			Assert.assertFalse(leaseManager.owns(2));
+			Assert.assertEquals("http://other:8080", leaseManager.ownerUrl(2));
+			stockService.reserveProduct("a2");
+			Assert.fail();
+		} catch (RuntimeException e) {
+			Assert.assertEquals("StockNotOwnedException", e.getClass().getSimpleName());
+		} finally {
+			transaction.execute(status -> stockLeaseRepository.release(partition, "other"));
+		}
+	}
+}
@@ -3,19 +3,25 @@ package com.tresw.stock.controller;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -31,9 +37,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.springtestdbunit.DbUnitTestExecutionListener;
 import com.github.springtestdbunit.annotation.DatabaseOperation;
 import com.github.springtestdbunit.annotation.DatabaseSetup;
+import com.tresw.stock.domain.InventorySnapshot;
 import com.tresw.stock.domain.Stock;
+import com.tresw.stock.service.SnapshotService;
 
-@SpringBootTest
+@SpringBootTest(properties = { "stock.archive.enabled=false" })
 @RunWith(SpringJUnit4ClassRunner.class)
 @TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
 		TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
@@ -42,6 +50,9 @@ public class StockControllerTest {
 	@Autowired
 	private WebApplicationContext webApplicationContext;
 
+	@Autowired
+	private SnapshotService snapshotService;
+
 	private MediaType contentType = new MediaType(MediaType.APPLICATION_JSON.getType(),
 			MediaType.APPLICATION_JSON.getSubtype(), Charset.forName("utf8"));
 
@@ -65,6 +76,16 @@ public class StockControllerTest {
 		mockMvc.perform(put("/product/sell/1")).andExpect(status().isOk());
 	}
 
+	//Tests rest call to get the sales velocity of a stock without sales
+	@Test
+	public void getVelocityUnknownStock() throws Exception {
+		mockMvc.perform(get("/stock/999/velocity")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.stockId", is(999)))
+				.andExpect(jsonPath("$.soldLastHour", is(0)))
+				.andExpect(jsonPath("$.reservedLastHour", is(0)))
+				.andExpect(jsonPath("$.soldPerSecond", hasSize(60)));
+	}
+
 	//Tests rest call to get a product
 	@Test
 	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
@@ -238,4 +259,110 @@ public class StockControllerTest {
 		mockMvc.perform(get("/stock/111")).andExpect(status().isNotFound());
 	}
 
+	//Tests rest call to get the summary of a stock
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void getSummary() throws Exception {
+		mockMvc.perform(get("/stock/1/summary")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.inStock", is(8)))
+				.andExpect(jsonPath("$.reserved", is(2)))
+				.andExpect(jsonPath("$.sold", is(0)));
+	}
+
+	//Tests rest call to get the summary of a stock that does not exist
+	@Test
+	public void getSummaryNotExist() throws Exception {
+		mockMvc.perform(get("/stock/111/summary")).andExpect(status().isNotFound());
+	}
+
+	//Tests rest call to get the summaries of several stocks
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void getSummaries() throws Exception {
+		mockMvc.perform(get("/stocks/summary?ids=1,2,111")).andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)));
+	}
+
+	//Tests a retried sell with the same idempotency key gets the first result instead of a conflict
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void sellProductIdempotent() throws Exception {
+		mockMvc.perform(put("/product/sell/3").header("Idempotency-Key", "sell-3")).andExpect(status().isOk());
+		mockMvc.perform(put("/product/sell/3").header("Idempotency-Key", "sell-3")).andExpect(status().isOk());
+		mockMvc.perform(put("/product/sell/3")).andExpect(status().isConflict());
+	}
+
+	//Tests an idempotency key can not be reused for a different request
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void idempotencyKeyReused() throws Exception {
+		mockMvc.perform(put("/product/reserve/4").header("Idempotency-Key", "reserve-4")).andExpect(status().isOk());
+		mockMvc.perform(put("/product/reserve/7").header("Idempotency-Key", "reserve-4"))
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	//Tests two clients can send the same idempotency key for different requests
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void idempotencyKeyPerClient() throws Exception {
+		mockMvc.perform(put("/product/reserve/4").header("Idempotency-Key", "reserve").header("X-Client-Id", "a"))
+				.andExpect(status().isOk());
+		mockMvc.perform(put("/product/reserve/7").header("Idempotency-Key", "reserve").header("X-Client-Id", "b"))
+				.andExpect(status().isOk());
+	}
+
+	//Tests rest call to search stocks
+	@Test
+	public void searchStocks() throws Exception {
+		mockMvc.perform(get("/stocks/search?q=phone&count=1")).andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(1)));
+	}
+
+	//Tests rest call to search stocks with a negative count
+	@Test
+	public void searchStocksNegativeCount() throws Exception {
+		mockMvc.perform(get("/stocks/search?q=phone&count=-1")).andExpect(status().isBadRequest());
+	}
+
+	//Tests rest call to look up several products
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void lookupProducts() throws Exception {
+		mockMvc.perform(post("/products/lookup").contentType(MediaType.APPLICATION_JSON).content("[\"1\",\"a1\",\"x\"]"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.products", hasSize(2)))
+				.andExpect(jsonPath("$.stocks", hasSize(2)))
+				.andExpect(jsonPath("$.unknown", hasSize(1)));
+	}
+
+	//Tests rest call to download a range of the latest snapshot
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void getSnapshotRange() throws Exception {
+		InventorySnapshot snapshot = snapshotService.write();
+		Assert.assertEquals(2, snapshot.getStocks());
+		Assert.assertEquals(15, snapshot.getProducts());
+		MvcResult result = mockMvc.perform(get("/snapshot/latest").header(HttpHeaders.RANGE, "bytes=0-5"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-5/" + snapshot.getLength()))
+				.andReturn();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()));
+		Assert.assertEquals(SnapshotService.MAGIC, in.readInt());
+		Assert.assertEquals(SnapshotService.FORMAT, in.readShort());
+		mockMvc.perform(get("/snapshot/latest").header(HttpHeaders.RANGE, "bytes=" + snapshot.getLength() + "-"))
+				.andExpect(status().isRequestedRangeNotSatisfiable());
+	}
+
+	//Tests rest call to get a stock answers not modified until the stock changes
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void getStockNotModified() throws Exception {
+		String etag = mockMvc.perform(get("/stock/1")).andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/stock/1").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		mockMvc.perform(put("/product/reserve/1")).andExpect(status().isOk());
+		mockMvc.perform(get("/stock/1").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+	}
 }
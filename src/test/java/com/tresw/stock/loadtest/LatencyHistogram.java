@@ -0,0 +1,79 @@
+package com.tresw.stock.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in microseconds. Values are kept in log linear buckets with 64 sub buckets
+ * per power of two, so every percentile is reported with less than 2% error and recording is a single
+ * atomic increment.
+ * @author alejandro
+ *
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * 64);
+
+	/**
+	 * @param micros the latency to record
+	 */
+	void record(long micros) {
+		counts.incrementAndGet(index(Math.max(0, micros)));
+	}
+
+	long count() {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest latency of the bucket holding the percentile, 0 if there are no values
+	 */
+	long percentile(double percentile) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return highestValue(i);
+			}
+		}
+		return highestValue(counts.length() - 1);
+	}
+
+	long max() {
+		for (int i = counts.length() - 1; i >= 0; i--) {
+			if (counts.get(i) > 0) {
+				return highestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	private static int index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	private static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index - shift * SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,235 @@
+package com.tresw.stock.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.service.StockService;
+
+/**
+ * HTTP load test. It boots the application on a random port, seeds a catalog and sends an open model mix of
+ * requests at a fixed rate. Every latency is measured from the time the request should have been sent, not
+ * from the time it was sent, so a stalled server is not hidden by the generator waiting for it (coordinated
+ * omission). The build fails when the p99 of any operation or the error ratio exceed their thresholds.
+ * 
+ * It only runs with the loadtest profile: mvn test -Ploadtest -Dloadtest.rate=500 -Dloadtest.duration=60
+ * @author alejandro
+ *
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = { "stock.ratelimit.enabled=false" })
+@RunWith(SpringJUnit4ClassRunner.class)
+public class StockLoadTest {
+
+	private static final int RATE = Integer.getInteger("loadtest.rate", 200);
+	private static final int DURATION = Integer.getInteger("loadtest.duration", 30);
+	private static final int WARMUP = Integer.getInteger("loadtest.warmup", 5);
+	private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 64);
+	private static final int STOCKS = Integer.getInteger("loadtest.stocks", 20);
+	private static final int PRODUCTS = Integer.getInteger("loadtest.products", 100);
+	private static final long P99_MILLIS = Long.getLong("loadtest.slo.p99", 250);
+	private static final double MAX_ERROR_RATIO = Double.parseDouble(System.getProperty("loadtest.slo.errors", "0.001"));
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private StockService stockService;
+
+	private final List<Integer> stockIds = new ArrayList<>();
+	private final List<String> serials = new ArrayList<>();
+	private final Map<Operation, Result> results = new EnumMap<>(Operation.class);
+
+	//Share of every operation in the traffic, in percent
+	enum Operation {
+		GET_STOCK(30), GET_PRODUCT(30), GET_STOCKS(10), SELL(10), RESERVE(10), UNRESERVE(10);
+
+		private final int weight;
+
+		Operation(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	@Before
+	public void seed() {
+		for (int i = 0; i < STOCKS; i++) {
+			Stock stock = new Stock();
+			stock.setName("load " + i);
+			stock.setShortDescription("load");
+			stock.setLongDescription("load test stock " + i);
+			stock.setPrice(new BigDecimal(10));
+			stock = stockService.addStock(stock);
+			stockIds.add(stock.getId());
+			List<String> stockSerials = new ArrayList<>();
+			for (int j = 0; j < PRODUCTS; j++) {
+				stockSerials.add("load-" + i + "-" + j);
+			}
+			stockService.addProducts(stock.getId(), stockSerials);
+			serials.addAll(stockSerials);
+		}
+		for (Operation operation : Operation.values()) {
+			results.put(operation, new Result());
+		}
+	}
+
+	//Tests the latency of the mixed traffic at the target rate is within the SLO
+	@Test
+	public void mixedTraffic() throws Exception {
+		run(WARMUP, false);
+		long start = System.nanoTime();
+		run(DURATION, true);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		String report = report(elapsed);
+		System.out.println(report);
+		Files.write(Paths.get("target", "loadtest-report.txt"), report.getBytes(StandardCharsets.UTF_8));
+		long requests = 0;
+		long errors = 0;
+		for (Map.Entry<Operation, Result> entry : results.entrySet()) {
+			requests += entry.getValue().histogram.count();
+			errors += entry.getValue().errors.sum();
+			Assert.assertTrue(entry.getKey() + " p99 above " + P99_MILLIS + " ms",
+					entry.getValue().histogram.percentile(99) <= P99_MILLIS * 1000);
+		}
+		Assert.assertTrue("error ratio above " + MAX_ERROR_RATIO, errors <= requests * MAX_ERROR_RATIO);
+	}
+
+	/**
+	 * Sends requests at the target rate during the given time. The requests are scheduled independently of
+	 * the responses, if the workers fall behind the requests wait in the queue and that time is measured.
+	 */
+	private void run(int seconds, boolean measure) throws InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(CONNECTIONS);
+		long interval = TimeUnit.SECONDS.toNanos(1) / RATE;
+		long start = System.nanoTime();
+		long total = (long) RATE * seconds;
+		for (long i = 0; i < total; i++) {
+			long intended = start + i * interval;
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			Operation operation = pick();
+			workers.execute(() -> send(operation, intended, measure));
+		}
+		workers.shutdown();
+		workers.awaitTermination(5, TimeUnit.MINUTES);
+	}
+
+	private void send(Operation operation, long intended, boolean measure) {
+		int status;
+		try {
+			status = request(operation);
+		} catch (IOException e) {
+			status = -1;
+		}
+		if (!measure) {
+			return;
+		}
+		Result result = results.get(operation);
+		result.histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+		if (status < 200 || status >= 500) {
+			result.errors.increment();
+		} else if (status >= 400) {
+			result.rejected.increment();
+		}
+	}
+
+	private int request(Operation operation) throws IOException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String serial = serials.get(random.nextInt(serials.size()));
+		switch (operation) {
+		case GET_STOCK:
+			return call("GET", "/stock/" + stockIds.get(random.nextInt(stockIds.size())));
+		case GET_PRODUCT:
+			return call("GET", "/product/" + serial);
+		case GET_STOCKS:
+			return call("GET", "/stocks?page=" + random.nextInt(Math.max(1, STOCKS / 10)) + "&count=10");
+		case SELL:
+			return call("PUT", "/product/sell/" + serial);
+		case RESERVE:
+			return call("PUT", "/product/reserve/" + serial);
+		default:
+			return call("PUT", "/product/unreserve/" + serial);
+		}
+	}
+
+	private int call(String method, String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		connection.setRequestMethod(method);
+		int status = connection.getResponseCode();
+		//the body is read to the end so the connection is kept alive and reused
+		InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if (body != null) {
+			byte[] buffer = new byte[8192];
+			while (body.read(buffer) != -1) {
+			}
+			body.close();
+		}
+		return status;
+	}
+
+	private static Operation pick() {
+		int value = ThreadLocalRandom.current().nextInt(100);
+		for (Operation operation : Operation.values()) {
+			value -= operation.weight;
+			if (value < 0) {
+				return operation;
+			}
+		}
+		return Operation.GET_STOCK;
+	}
+
+	private String report(double elapsed) {
+		StringWriter out = new StringWriter();
+		PrintWriter writer = new PrintWriter(out);
+		long requests = 0;
+		writer.printf("target %d req/s during %d s, %d connections%n", RATE, DURATION, CONNECTIONS);
+		writer.printf("%-12s %8s %8s %8s %9s %9s %9s %9s %9s%n", "operation", "count", "4xx", "errors", "p50 ms",
+				"p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (Map.Entry<Operation, Result> entry : results.entrySet()) {
+			LatencyHistogram histogram = entry.getValue().histogram;
+			requests += histogram.count();
+			writer.printf("%-12s %8d %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), histogram.count(),
+					entry.getValue().rejected.sum(), entry.getValue().errors.sum(), histogram.percentile(50) / 1000.0,
+					histogram.percentile(90) / 1000.0, histogram.percentile(99) / 1000.0,
+					histogram.percentile(99.9) / 1000.0, histogram.max() / 1000.0);
+		}
+		writer.printf("achieved %.1f req/s, SLO p99 %d ms%n", requests / elapsed, P99_MILLIS);
+		writer.flush();
+		return out.toString();
+	}
+
+	private static class Result {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+	}
+}
@@ -0,0 +1,85 @@
+package com.tresw.stock.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SalesWindowTest {
+
+	private static final long START = 999_960; //at the start of a minute
+
+	//Tests the events are counted in the last minute and the last hour
+	@Test
+	public void count() {
+		SalesWindow window = new SalesWindow(2);
+		window.record(0, START);
+		window.record(0, START);
+		window.record(1, START + 1);
+		Assert.assertEquals(2, window.lastMinute(0, START + 1));
+		Assert.assertEquals(2, window.lastHour(0, START + 1));
+		Assert.assertEquals(1, window.lastMinute(1, START + 1));
+	}
+
+	//Tests the events leave the last minute after 60 seconds but stay in the last hour
+	@Test
+	public void roll() {
+		SalesWindow window = new SalesWindow(1);
+		window.record(0, START);
+		Assert.assertEquals(0, window.lastMinute(0, START + 60));
+		Assert.assertEquals(1, window.lastHour(0, START + 60));
+		Assert.assertEquals(0, window.lastHour(0, START + 3600));
+	}
+
+	//Tests a slot reused in the next lap starts counting from zero
+	@Test
+	public void reuse() {
+		SalesWindow window = new SalesWindow(1);
+		window.record(0, START);
+		window.record(0, START);
+		window.record(0, START + 60);
+		Assert.assertEquals(1, window.lastMinute(0, START + 60));
+		int[] perSecond = window.perSecond(0, START + 60);
+		Assert.assertEquals(1, perSecond[SalesWindow.SLOTS - 1]);
+		Assert.assertEquals(0, perSecond[0]);
+	}
+
+	//Tests the window is idle once the minute of its last event leaves the last hour
+	@Test
+	public void idle() {
+		SalesWindow window = new SalesWindow(1);
+		window.record(0, START);
+		Assert.assertFalse(window.isIdle(START + 3540));
+		Assert.assertTrue(window.isIdle(START + 3600));
+	}
+
+	//Tests the window is only retired when idle with no event being recorded, and no event is recorded once retired
+	@Test
+	public void retire() {
+		SalesWindow window = new SalesWindow(1);
+		window.record(0, START);
+		Assert.assertFalse(window.retire(START + 60));
+		Assert.assertTrue(window.acquire());
+		Assert.assertFalse(window.retire(START + 3600));
+		window.release();
+		Assert.assertTrue(window.retire(START + 3600));
+		Assert.assertFalse(window.acquire());
+	}
+
+	//Tests no event is lost when several threads count at the same time
+	@Test
+	public void concurrent() throws InterruptedException {
+		SalesWindow window = new SalesWindow(1);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < 10000; j++) {
+					window.record(0, START);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(40000, window.lastMinute(0, START));
+	}
+}
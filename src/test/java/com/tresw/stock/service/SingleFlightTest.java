@@ -0,0 +1,71 @@
+package com.tresw.stock.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	//Tests concurrent loads of the same key run the loader once and share its result
+	@Test
+	public void coalesce() throws Exception {
+		SingleFlight<String, Integer> flight = new SingleFlight<>();
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<Integer> leader = executor.submit(() -> flight.execute("a", () -> {
+				loads.incrementAndGet();
+				await(release);
+				return 42;
+			}));
+			while (loads.get() == 0) {
+				Thread.yield();
+			}
+			Future<Integer> follower = executor.submit(() -> flight.execute("a", () -> loads.incrementAndGet()));
+			while (flight.getCoalesced() == 0) {
+				Thread.yield();
+			}
+			release.countDown();
+			Assert.assertEquals(42, leader.get(5, TimeUnit.SECONDS).intValue());
+			Assert.assertEquals(42, follower.get(5, TimeUnit.SECONDS).intValue());
+			Assert.assertEquals(1, loads.get());
+			Assert.assertEquals(2, flight.getCalls());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	//Tests the result is not kept once the load has finished
+	@Test
+	public void noCaching() {
+		SingleFlight<String, Integer> flight = new SingleFlight<>();
+		AtomicInteger loads = new AtomicInteger();
+		flight.execute("a", () -> loads.incrementAndGet());
+		flight.execute("a", () -> loads.incrementAndGet());
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(0, flight.getCoalesced());
+	}
+
+	//Tests the loader's exception is thrown to the caller
+	@Test(expected = IllegalStateException.class)
+	public void exception() {
+		new SingleFlight<String, Integer>().execute("a", () -> {
+			throw new IllegalStateException();
+		});
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -20,15 +20,21 @@ import org.springframework.test.context.transaction.TransactionalTestExecutionLi
 import com.github.springtestdbunit.DbUnitTestExecutionListener;
 import com.github.springtestdbunit.annotation.DatabaseOperation;
 import com.github.springtestdbunit.annotation.DatabaseSetup;
+import com.tresw.stock.alert.LowStockAlerts;
 import com.tresw.stock.domain.Product;
+import com.tresw.stock.domain.ProductLookup;
+import com.tresw.stock.domain.ReconciliationReport;
 import com.tresw.stock.domain.Stock;
+import com.tresw.stock.domain.StockSearchResult;
+import com.tresw.stock.domain.StockSummary;
+import com.tresw.stock.domain.StockVelocity;
 import com.tresw.stock.domain.Product.Status;
 import com.tresw.stock.service.StockService.ProductAlreadyExistsException;
 import com.tresw.stock.service.StockService.ProductNotAvailableException;
 import com.tresw.stock.service.StockService.ProductNotFoundException;
 import com.tresw.stock.service.StockService.StockNotFoundException;
 
-@SpringBootTest
+@SpringBootTest(properties = { "stock.archive.enabled=false" })
 @RunWith(SpringJUnit4ClassRunner.class)
 @TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
 		TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
@@ -37,6 +43,21 @@ public class StockServiceTest {
 	@Autowired
 	private StockService stockService;
 
+	@Autowired
+	private ProductArchiver productArchiver;
+
+	@Autowired
+	private StockSearchIndex stockSearchIndex;
+
+	@Autowired
+	private InventoryReconciler inventoryReconciler;
+
+	@Autowired
+	private LowStockAlerts lowStockAlerts;
+
+	@Autowired
+	private SalesVelocity salesVelocity;
+
 	//Tests add product when a product with the serial number already exists
 	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
 	@Test(expected = ProductAlreadyExistsException.class)
@@ -86,7 +107,7 @@ public class StockServiceTest {
 	@Test
 	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
 	public void updateStock() {
-		Stock s = stockService.getStock(1);
+		Stock s = editableStock(1);
 		String nameBefore = s.getName();
 		s.setName("test");
 		stockService.updateStock(1,s);
@@ -177,6 +198,20 @@ public class StockServiceTest {
 		Assert.assertEquals(Status.SOLD, p.getStatus());
 	}
 
+	//Tests selling a reserved product does not decrease the quantity again
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void sellReservedProduct() {
+		int quantityBefore = stockService.getStock(1).getQuantity();
+		stockService.reserveProduct("1");
+		stockService.sellProduct("1");
+		StockSummary summary = stockService.getSummary(1);
+		Assert.assertEquals(quantityBefore - 1, summary.getQuantity());
+		Assert.assertEquals(7, summary.getInStock());
+		Assert.assertEquals(2, summary.getReserved());
+		Assert.assertEquals(1, summary.getSold());
+	}
+
 	//Tests selling a product that does not exist
 	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
 	@Test(expected = ProductNotFoundException.class)
@@ -190,4 +225,187 @@ public class StockServiceTest {
 	public void sellProductNotAvailable() {
 		stockService.reserveProduct("5");
 	}
-}
+
+	//Tests the summary counters are updated by reserve, unreserve, sell and add product
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void summaryFollowsTransitions() {
+		stockService.reserveProduct("1");
+		stockService.sellProduct("1");
+		stockService.sellProduct("2");
+		stockService.unReserveProduct("5");
+		stockService.addProduct(1, "33");
+		StockSummary summary = stockService.getSummary(1);
+		Assert.assertEquals(8, summary.getInStock());
+		Assert.assertEquals(1, summary.getReserved());
+		Assert.assertEquals(2, summary.getSold());
+	}
+
+	//Tests getting the summaries of several stocks, unknown stocks are ignored
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void getSummaries() {
+		List<StockSummary> summaries = stockService.getSummaries(Arrays.asList(1, 2, 3));
+		Assert.assertEquals(2, summaries.size());
+	}
+
+	//Tests repairing the summary counters when they have drifted from the products
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void repairSummaries() {
+		Stock s = editableStock(2);
+		s.setReserved(3);
+		stockService.addStock(s);
+		Assert.assertEquals(1, stockService.repairSummaries());
+		StockSummary summary = stockService.getSummary(2);
+		Assert.assertEquals(5, summary.getInStock());
+		Assert.assertEquals(0, summary.getReserved());
+	}
+
+	//Tests a sold product is moved to the archive and still found by its serial number
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void archiveSoldProduct() {
+		stockService.sellProduct("3");
+		Assert.assertEquals(1, productArchiver.archiveSold());
+		Assert.assertEquals(9, stockService.getProducts(1).size());
+		Product p = stockService.getProduct("3");
+		Assert.assertEquals(Status.SOLD, p.getStatus());
+		Assert.assertEquals(1, p.getStock().getId().intValue());
+	}
+
+	//Tests an archived product can not be added again nor sold
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	@Test(expected = ProductAlreadyExistsException.class)
+	public void addArchivedProduct() {
+		stockService.sellProduct("4");
+		productArchiver.archiveSold();
+		stockService.addProduct(2, "4");
+	}
+
+	//Tests the repaired summary keeps counting the archived products as sold
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void repairSummariesWithArchive() {
+		stockService.sellProduct("7");
+		productArchiver.archiveSold();
+		Assert.assertEquals(0, stockService.repairSummaries());
+		Assert.assertEquals(1, stockService.getSummary(1).getSold());
+	}
+
+	//Tests the reconciliation corrects the quantity and the counters that drifted from the products
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void reconcileInventory() {
+		Stock s = editableStock(2);
+		s.setSold(4);
+		stockService.addStock(s);
+		ReconciliationReport report = inventoryReconciler.reconcile();
+		Assert.assertEquals(ReconciliationReport.State.COMPLETED, report.getState());
+		Assert.assertEquals(2, report.getCorrected());
+		Assert.assertEquals(15, report.getProductsCounted());
+		StockSummary summary = stockService.getSummary(1);
+		Assert.assertEquals(8, summary.getQuantity());
+		Assert.assertEquals(2, summary.getReserved());
+		Assert.assertEquals(0, stockService.getSummary(2).getSold());
+	}
+
+	//Tests the stock is low once its quantity reaches the threshold, until it rises over the hysteresis
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void lowStockAlert() {
+		Stock s = editableStock(1);
+		s.setReorderThreshold(9);
+		stockService.updateStock(1, s);
+		Assert.assertFalse(lowStockAlerts.isLow(1));
+		stockService.sellProduct("1");
+		Assert.assertTrue(lowStockAlerts.isLow(1));
+		stockService.unReserveProduct("5");
+		Assert.assertTrue(lowStockAlerts.isLow(1));
+		stockService.addProduct(1, "33");
+		Assert.assertFalse(lowStockAlerts.isLow(1));
+	}
+
+	//Tests searching stocks by a word prefix, the name matches rank first
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void searchStocks() {
+		stockSearchIndex.rebuild();
+		List<StockSearchResult> results = stockService.searchStocks("sam", 10);
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals(2, results.get(0).getId().intValue());
+		Assert.assertEquals(2, stockService.searchStocks("phone model", 10).size());
+		Assert.assertTrue(stockService.searchStocks("phone tablet", 10).isEmpty());
+	}
+
+	//Tests the search index is updated when a stock is created or updated
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void searchUpdatedStock() {
+		stockSearchIndex.rebuild();
+		Stock s = editableStock(1);
+		s.setName("Galaxy");
+		stockService.updateStock(1, s);
+		Assert.assertTrue(stockService.searchStocks("iphone model", 10).isEmpty());
+		Assert.assertEquals(1, stockService.searchStocks("galax", 10).size());
+	}
+
+	//Tests looking up several products, the stocks are returned once and the unknown serials reported
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void lookupProducts() {
+		ProductLookup lookup = stockService.lookupProducts(Arrays.asList("1", "a1", "2", "unknown", "1"));
+		Assert.assertEquals(3, lookup.getProducts().size());
+		Assert.assertEquals("1", lookup.getProducts().get(0).getSerialNo());
+		Assert.assertEquals(2, lookup.getStocks().size());
+		Assert.assertEquals(Arrays.asList("unknown"), lookup.getUnknown());
+	}
+
+	//Tests selling and reserving a product are counted in the sales velocity of its stock
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void recordSalesVelocity() {
+		StockVelocity before = salesVelocity.velocity(2);
+		stockService.sellProduct("a1");
+		stockService.reserveProduct("a2");
+		StockVelocity after = salesVelocity.velocity(2);
+		Assert.assertEquals(before.getSoldLastHour() + 1, after.getSoldLastHour());
+		Assert.assertEquals(before.getReservedLastHour() + 1, after.getReservedLastHour());
+	}
+
+	//Tests the hottest stocks are the ones with the most sales, the hottest first
+	@Test
+	public void hottestStocks() {
+		for (int stockId = 1001; stockId <= 1010; stockId++) {
+			for (int i = 0; i < (stockId - 1000) * 100; i++) {
+				salesVelocity.record(stockId, Status.SOLD);
+			}
+		}
+		List<StockVelocity> hottest = salesVelocity.hottest(3, true);
+		Assert.assertEquals(3, hottest.size());
+		Assert.assertEquals(1010, hottest.get(0).getStockId().intValue());
+		Assert.assertEquals(1000, hottest.get(0).getSoldLastHour());
+		Assert.assertEquals(1009, hottest.get(1).getStockId().intValue());
+		Assert.assertEquals(1008, hottest.get(2).getStockId().intValue());
+		Assert.assertTrue(salesVelocity.hottest(0, true).isEmpty());
+	}
+
+	/**
+	 * Copies a stock to be changed, the instance returned by the service is shared with concurrent readers
+	 */
+	private Stock editableStock(int idStock) {
+		Stock shared = stockService.getStock(idStock);
+		Stock s = new Stock();
+		s.setId(shared.getId());
+		s.setName(shared.getName());
+		s.setShortDescription(shared.getShortDescription());
+		s.setLongDescription(shared.getLongDescription());
+		s.setPrice(shared.getPrice());
+		s.setQuantity(shared.getQuantity());
+		s.setInStock(shared.getInStock());
+		s.setReserved(shared.getReserved());
+		s.setSold(shared.getSold());
+		s.setReorderThreshold(shared.getReorderThreshold());
+		return s;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.tresw.stock.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	//Tests a new bucket admits a full burst and then rejects
+	@Test
+	public void burst() {
+		TokenBucket bucket = new TokenBucket(10, 5, 0);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(bucket.tryAcquire(0));
+		}
+		Assert.assertFalse(bucket.tryAcquire(0));
+	}
+
+	//Tests the bucket is refilled at the configured rate
+	@Test
+	public void refill() {
+		TokenBucket bucket = new TokenBucket(10, 1, 0);
+		Assert.assertTrue(bucket.tryAcquire(0));
+		Assert.assertFalse(bucket.tryAcquire(SECOND / 20));
+		Assert.assertTrue(bucket.tryAcquire(SECOND / 10));
+	}
+
+	//Tests a token given back can be taken again
+	@Test
+	public void release() {
+		TokenBucket bucket = new TokenBucket(10, 1, 0);
+		Assert.assertTrue(bucket.tryAcquire(0));
+		bucket.release();
+		Assert.assertTrue(bucket.isFull(0));
+		Assert.assertTrue(bucket.tryAcquire(0));
+	}
+
+	//Tests the bucket is reported full once all its tokens have been refilled
+	@Test
+	public void full() {
+		TokenBucket bucket = new TokenBucket(10, 2, 0);
+		bucket.tryAcquire(0);
+		bucket.tryAcquire(0);
+		Assert.assertFalse(bucket.isFull(SECOND / 10));
+		Assert.assertTrue(bucket.isFull(SECOND / 5));
+	}
+}
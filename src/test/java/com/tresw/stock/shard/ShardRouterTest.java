@@ -0,0 +1,146 @@
+package com.tresw.stock.shard;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.service.StockService;
+
+@SpringBootTest(properties = { "stock.sharding.enabled=true",
+		"stock.sharding.urls=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1",
+		"stock.archive.enabled=false" })
+@RunWith(SpringJUnit4ClassRunner.class)
+public class ShardRouterTest {
+
+	@Autowired
+	private StockService stockService;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	@Autowired
+	private ShardRegistry shardRegistry;
+
+	//Tests the new stocks are created in the shard with fewer stocks, with ids unique across the shards
+	@Test
+	public void addStockLeastLoadedShard() {
+		int[] counts = shardRouter.getStockCounts();
+		Stock first = stockService.addStock(newStock("Shard lamp"));
+		Assert.assertEquals(Math.min(counts[0], counts[1]), counts[shardRouter.shardOf(first.getId())]);
+		counts = shardRouter.getStockCounts();
+		Stock second = stockService.addStock(newStock("Shard chair"));
+		Assert.assertEquals(Math.min(counts[0], counts[1]), counts[shardRouter.shardOf(second.getId())]);
+		Assert.assertNotEquals(first.getId(), second.getId());
+	}
+
+	//Tests the products are found by serial number in the shard of their stock
+	@Test
+	public void productsRoutedBySerial() {
+		Stock stock = stockService.addStock(newStock("Shard table"));
+		stockService.addProduct(stock.getId(), "sh-1");
+		stockService.sellProduct("sh-1");
+		Assert.assertEquals(Status.SOLD, stockService.getProduct("sh-1").getStatus());
+		Assert.assertEquals(1, stockService.getSummary(stock.getId()).getSold());
+	}
+
+	//Tests a serial number can not be added twice, even to stocks in different shards
+	@Test
+	public void addProductAlreadyExistsInOtherShard() {
+		Stock first = stockService.addStock(newStock("Shard desk"));
+		Stock second = stockService.addStock(newStock("Shard shelf"));
+		stockService.addProduct(first.getId(), "sh-2");
+		try {
+			stockService.addProduct(second.getId(), "sh-2");
+			Assert.fail();
+		} catch (RuntimeException e) {
+			Assert.assertEquals("ProductAlreadyExistsException", e.getClass().getSimpleName());
+		}
+	}
+
+	//Tests the pages of stocks are merged from all the shards in order
+	@Test
+	public void getStocksMergedInOrder() {
+		for (String name : Arrays.asList("Shard d", "Shard b", "Shard e", "Shard a", "Shard c")) {
+			stockService.addStock(newStock(name));
+		}
+		List<String> names = new ArrayList<>();
+		Page<Stock> page = stockService.getStocks(new PageRequest(0, 2, new Sort("name")));
+		while (page.hasContent()) {
+			page.forEach(stock -> names.add(stock.getName()));
+			page = stockService.getStocks(new PageRequest(page.getNumber() + 1, 2, new Sort("name")));
+		}
+		List<String> sorted = new ArrayList<>(names);
+		sorted.sort(null);
+		Assert.assertEquals(sorted, names);
+		Assert.assertEquals(page.getTotalElements(), names.size());
+	}
+
+	//Tests a stock keeps its products when it is moved to another shard
+	@Test
+	public void moveStock() {
+		Stock stock = stockService.addStock(newStock("Shard sofa"));
+		stockService.addProduct(stock.getId(), "sh-3");
+		int target = 1 - shardRouter.shardOf(stock.getId());
+		shardRebalancer.moveStock(stock.getId(), target);
+		Assert.assertEquals(target, shardRouter.shardOf(stock.getId()));
+		Assert.assertEquals(1, stockService.getProducts(stock.getId()).size());
+		stockService.reserveProduct("sh-3");
+		Assert.assertEquals(Status.RESERVED, stockService.getProduct("sh-3").getStatus());
+	}
+
+	//Tests no sale is lost when the products are sold while their stock is moved, including the products
+	//created before sharding, which are not in the directory
+	@Test
+	public void sellWhileMovingStock() throws Exception {
+		Stock stock = stockService.addStock(newStock("Shard bed"));
+		shardRebalancer.moveStock(stock.getId(), ShardRouter.DIRECTORY_SHARD);
+		List<String> serials = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			serials.add("sh-move-" + i);
+			stockService.addProduct(stock.getId(), "sh-move-" + i);
+		}
+		shardRegistry.jdbc(ShardRouter.DIRECTORY_SHARD).update(
+				"DELETE FROM product_directory WHERE serial_no LIKE 'sh-move-%'");
+		ExecutorService seller = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> sales = seller.submit(() -> serials.forEach(stockService::sellProduct));
+			shardRebalancer.moveStock(stock.getId(), 1);
+			shardRebalancer.moveStock(stock.getId(), ShardRouter.DIRECTORY_SHARD);
+			sales.get();
+		} finally {
+			seller.shutdown();
+		}
+		for (String serial : serials) {
+			Assert.assertEquals(Status.SOLD, stockService.getProduct(serial).getStatus());
+		}
+		Assert.assertEquals(serials.size(), stockService.getSummary(stock.getId()).getSold());
+	}
+
+	private static Stock newStock(String name) {
+		Stock stock = new Stock();
+		stock.setName(name);
+		stock.setShortDescription(name);
+		stock.setLongDescription(name);
+		stock.setPrice(BigDecimal.TEN);
+		return stock;
+	}
+}
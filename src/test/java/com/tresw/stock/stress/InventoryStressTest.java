@@ -0,0 +1,224 @@
+package com.tresw.stock.stress;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.tresw.stock.domain.Product.Status;
+import com.tresw.stock.domain.Stock;
+import com.tresw.stock.repository.ArchivedProductRepository;
+import com.tresw.stock.repository.ProductRepository;
+import com.tresw.stock.service.StockService;
+
+/**
+ * Concurrency stress test of the stock operations. Several threads sell, reserve, unreserve and add products
+ * at random on a few stocks, half of the operations on a single hot stock, and then the inventory invariants
+ * are checked:
+ * - no product is sold twice
+ * - the stock's quantity is the number of its products in stock
+ * - the stock's status counters are the number of its products in every status
+ * - every product added is kept
+ * 
+ * It only runs with the stress profile: mvn test -Pstress -Dstress.duration=300 -Dstress.threads=32
+ * @author alejandro
+ *
+ */
+@SpringBootTest(properties = { "stock.archive.delay=5000" })
+@RunWith(SpringJUnit4ClassRunner.class)
+public class InventoryStressTest {
+
+	private static final int DURATION = Integer.getInteger("stress.duration", 120);
+	private static final int THREADS = Integer.getInteger("stress.threads", 16);
+	private static final int STOCKS = Integer.getInteger("stress.stocks", 4);
+	private static final int PRODUCTS = Integer.getInteger("stress.products", 200);
+
+	@Autowired
+	private StockService stockService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ArchivedProductRepository archivedProductRepository;
+
+	private final List<Integer> stockIds = new ArrayList<>();
+	private final Map<Integer, Integer> initialProducts = new HashMap<>();
+	private final ConcurrentMap<Integer, LongAdder> added = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> sold = new ConcurrentHashMap<>();
+	private final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+	private final AtomicLong nextSerial = new AtomicLong();
+
+	enum Operation {
+		SELL, RESERVE, UNRESERVE, ADD
+	}
+
+	@Before
+	public void seed() {
+		for (int i = 0; i < STOCKS; i++) {
+			Stock stock = new Stock();
+			stock.setName("stress " + i);
+			stock.setShortDescription("stress");
+			stock.setLongDescription("stress test stock " + i);
+			stock.setPrice(new BigDecimal(10));
+			stock = stockService.addStock(stock);
+			List<String> stockSerials = new ArrayList<>();
+			for (int j = 0; j < PRODUCTS; j++) {
+				stockSerials.add("stress-" + stock.getId() + "-" + j);
+			}
+			stockService.addProducts(stock.getId(), stockSerials);
+			stockIds.add(stock.getId());
+			initialProducts.put(stock.getId(), PRODUCTS);
+			added.put(stock.getId(), new LongAdder());
+		}
+		for (Operation operation : Operation.values()) {
+			counters.put(operation, new Counters());
+		}
+	}
+
+	//Tests the inventory invariants hold after running random operations concurrently
+	@Test
+	public void randomInterleavings() throws Exception {
+		ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION);
+		for (int i = 0; i < THREADS; i++) {
+			workers.execute(() -> {
+				while (System.nanoTime() < end) {
+					operate();
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(DURATION + 60, TimeUnit.SECONDS);
+
+		List<String> violations = checkInvariants();
+		System.out.println(report(violations));
+		Assert.assertTrue(String.join(", ", violations), violations.isEmpty());
+	}
+
+	private void operate() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Operation operation = Operation.values()[random.nextInt(Operation.values().length)];
+		//half of the operations go to the first stock so it is contended
+		int stockIndex = random.nextBoolean() ? 0 : random.nextInt(stockIds.size());
+		int stockId = stockIds.get(stockIndex);
+		String serial = "stress-" + stockId + "-" + random.nextInt(PRODUCTS);
+		Counters counter = counters.get(operation);
+		try {
+			switch (operation) {
+			case SELL:
+				stockService.sellProduct(serial);
+				sold.computeIfAbsent(serial, s -> new LongAdder()).increment();
+				break;
+			case RESERVE:
+				stockService.reserveProduct(serial);
+				break;
+			case UNRESERVE:
+				stockService.unReserveProduct(serial);
+				break;
+			case ADD:
+				stockService.addProduct(stockId, "stress-new-" + nextSerial.incrementAndGet());
+				added.get(stockId).increment();
+				break;
+			}
+			counter.succeeded.increment();
+		} catch (RuntimeException e) {
+			if (AnnotationUtils.findAnnotation(e.getClass(), ResponseStatus.class) != null) {
+				counter.rejected.increment();
+			} else {
+				counter.failed.increment();
+			}
+		}
+	}
+
+	private List<String> checkInvariants() {
+		List<String> violations = new ArrayList<>();
+		for (Map.Entry<String, LongAdder> entry : sold.entrySet()) {
+			if (entry.getValue().sum() > 1) {
+				violations.add("product " + entry.getKey() + " sold " + entry.getValue().sum() + " times");
+			}
+		}
+		Map<Integer, Map<Status, Long>> counts = new HashMap<>();
+		addCounts(counts, productRepository.countByStockAndStatus());
+		addCounts(counts, archivedProductRepository.countByStockAndStatus());
+		for (Integer stockId : stockIds) {
+			Stock stock = stockService.getStock(stockId);
+			Map<Status, Long> count = counts.getOrDefault(stockId, Collections.emptyMap());
+			long inStock = count.getOrDefault(Status.IN_STOCK, 0L);
+			long reserved = count.getOrDefault(Status.RESERVED, 0L);
+			long soldCount = count.getOrDefault(Status.SOLD, 0L);
+			if (stock.getQuantity() != inStock) {
+				violations.add("stock " + stockId + " quantity " + stock.getQuantity() + " but " + inStock
+						+ " products in stock");
+			}
+			if (stock.getInStock() != inStock || stock.getReserved() != reserved || stock.getSold() != soldCount) {
+				violations.add("stock " + stockId + " counters " + stock.getInStock() + "/" + stock.getReserved() + "/"
+						+ stock.getSold() + " but products " + inStock + "/" + reserved + "/" + soldCount);
+			}
+			long expected = initialProducts.get(stockId) + added.get(stockId).sum();
+			if (inStock + reserved + soldCount != expected) {
+				violations.add("stock " + stockId + " has " + (inStock + reserved + soldCount) + " products but "
+						+ expected + " were added");
+			}
+		}
+		for (Map.Entry<Operation, Counters> entry : counters.entrySet()) {
+			if (entry.getValue().failed.sum() > 0) {
+				violations.add(entry.getKey() + " failed " + entry.getValue().failed.sum() + " times");
+			}
+		}
+		return violations;
+	}
+
+	private static void addCounts(Map<Integer, Map<Status, Long>> counts, List<Object[]> rows) {
+		for (Object[] row : rows) {
+			counts.computeIfAbsent((Integer) row[0], id -> new EnumMap<>(Status.class)).merge((Status) row[1],
+					(Long) row[2], Long::sum);
+		}
+	}
+
+	private String report(List<String> violations) {
+		StringBuilder report = new StringBuilder();
+		long total = 0;
+		report.append(String.format("%d threads during %d s on %d stocks%n", THREADS, DURATION, STOCKS));
+		report.append(String.format("%-10s %10s %10s %10s%n", "operation", "succeeded", "rejected", "failed"));
+		for (Map.Entry<Operation, Counters> entry : counters.entrySet()) {
+			Counters counter = entry.getValue();
+			total += counter.succeeded.sum() + counter.rejected.sum() + counter.failed.sum();
+			report.append(String.format("%-10s %10d %10d %10d%n", entry.getKey(), counter.succeeded.sum(),
+					counter.rejected.sum(), counter.failed.sum()));
+		}
+		report.append(String.format("throughput %.1f ops/s%n", (double) total / DURATION));
+		report.append(String.format("%d invariant violations%n", violations.size()));
+		for (String violation : violations) {
+			report.append("  ").append(violation).append(String.format("%n"));
+		}
+		return report.toString();
+	}
+
+	private static class Counters {
+		private final LongAdder succeeded = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+	}
+}
@@ -0,0 +1,125 @@
+package com.tresw.stock.trace;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+import com.github.springtestdbunit.annotation.DatabaseOperation;
+import com.github.springtestdbunit.annotation.DatabaseSetup;
+import com.tresw.stock.service.StockService;
+
+@SpringBootTest(properties = { "stock.trace.enabled=true", "stock.trace.slow-request=0" })
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+		TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class SqlTracerTest {
+
+	@Autowired
+	private SqlTracer sqlTracer;
+
+	@Autowired
+	private StockService stockService;
+
+	@Autowired
+	private TracingFilter tracingFilter;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private TracingPoolMetadataProvider tracingPoolMetadataProvider;
+
+	//Tests the statements of a traced request are recorded with their repository method and rows
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void traceStatements() {
+		SqlTrace trace = trace(() -> stockService.getProducts(1));
+		Assert.assertEquals(2, trace.getStatementCount());
+		SqlStatement stock = trace.getStatements().get(0);
+		Assert.assertEquals("StockRepository.findOne", stock.getRepository());
+		Assert.assertEquals(1, stock.getRows());
+		SqlStatement products = trace.getStatements().get(1);
+		Assert.assertNull(products.getRepository()); //lazy load
+		Assert.assertEquals(10, products.getRows());
+	}
+
+	//Tests a select repeated by the request is flagged as an N+1 pattern and the trace is kept
+	@Test
+	@DatabaseSetup(type = DatabaseOperation.CLEAN_INSERT, value = "/dataset.xml")
+	public void flagNPlusOne() {
+		SqlTrace trace = trace(() -> {
+			for (int i = 0; i < 5; i++) {
+				stockService.getSummary(1);
+			}
+		});
+		Assert.assertEquals(1, trace.getNPlusOne().size());
+		Assert.assertEquals(5, trace.getNPlusOne().get(0).getCount());
+		Assert.assertSame(trace, sqlTracer.getSlowTraces().get(0));
+	}
+
+	//Tests a select run once in every shard by a fan-out is not flagged, and one repeated in a shard is
+	@Test
+	public void flagNPlusOnePerShard() {
+		SqlTrace trace = sqlTracer.begin("GET", "/test");
+		for (int shard = 0; shard < 5; shard++) {
+			trace.start("select * from stock", null, shard);
+		}
+		for (int i = 0; i < 5; i++) {
+			trace.start("select * from product", null, 1);
+		}
+		sqlTracer.finish(trace, 200);
+		Assert.assertEquals(1, trace.getNPlusOne().size());
+		Assert.assertEquals("select * from product", trace.getNPlusOne().get(0).getSql());
+		Assert.assertEquals(1, trace.getNPlusOne().get(0).getShard().intValue());
+	}
+
+	//Tests a request failing with an exception is traced with the status 500
+	@Test
+	public void traceFailedRequest() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fail");
+		try {
+			tracingFilter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+				throw new IllegalStateException();
+			});
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		SqlTrace trace = sqlTracer.getSlowTraces().get(0);
+		Assert.assertEquals("/fail", trace.getUri());
+		Assert.assertEquals(500, trace.getStatus());
+	}
+
+	//Tests the connection pool wrapped by the tracing data source still publishes its metadata
+	@Test
+	public void poolMetadata() {
+		Assert.assertTrue(dataSource instanceof TracingDataSource);
+		DataSourcePoolMetadata metadata = tracingPoolMetadataProvider.getDataSourcePoolMetadata(dataSource);
+		Assert.assertNotNull(metadata);
+		Assert.assertTrue(metadata.getMax() > 0);
+	}
+
+	private SqlTrace trace(Runnable request) {
+		SqlTrace trace = sqlTracer.begin("GET", "/test");
+		SqlTrace previous = SqlTrace.enter(trace);
+		try {
+			request.run();
+		} finally {
+			SqlTrace.exit(previous);
+		}
+		sqlTracer.finish(trace, 200);
+		return trace;
+	}
+}
@@ -0,0 +1,125 @@
+package com.tresw.stock.trace;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracingConnectionTest {
+
+	private Connection connection;
+
+	private SqlTrace trace;
+
+	@Before
+	public void open() throws SQLException {
+		connection = new TracingConnection(DriverManager.getConnection("jdbc:h2:mem:tracing"), null);
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE item (id INT)");
+			statement.executeUpdate("INSERT INTO item VALUES (1), (2), (3)");
+		}
+		trace = new SqlTrace("GET", "/items", 100, Long.MAX_VALUE);
+	}
+
+	@After
+	public void close() throws SQLException {
+		connection.close();
+	}
+
+	//Tests the statement's updates and queries are traced with the rows updated and read
+	@Test
+	public void traceStatement() throws SQLException {
+		SqlTrace previous = SqlTrace.enter(trace);
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("UPDATE item SET id = id + 10 WHERE id > 1");
+			read(statement.executeQuery("SELECT id FROM item"));
+		} finally {
+			SqlTrace.exit(previous);
+		}
+		Assert.assertEquals(2, trace.getStatementCount());
+		Assert.assertEquals(2, trace.getStatements().get(0).getRows());
+		Assert.assertEquals(3, trace.getStatements().get(1).getRows());
+	}
+
+	//Tests the rows of a query run with execute are counted when read from getResultSet
+	@Test
+	public void traceExecute() throws SQLException {
+		SqlTrace previous = SqlTrace.enter(trace);
+		try (Statement statement = connection.createStatement()) {
+			Assert.assertTrue(statement.execute("SELECT id FROM item WHERE id < 3"));
+			ResultSet resultSet = statement.getResultSet();
+			Assert.assertSame(resultSet, statement.getResultSet());
+			read(resultSet);
+		} finally {
+			SqlTrace.exit(previous);
+		}
+		Assert.assertEquals(1, trace.getStatementCount());
+		Assert.assertEquals(2, trace.getStatements().get(0).getRows());
+	}
+
+	//Tests the prepared statement's batches, updates and queries are traced with the prepared sql
+	@Test
+	public void tracePreparedStatement() throws SQLException {
+		SqlTrace previous = SqlTrace.enter(trace);
+		try (PreparedStatement insert = connection.prepareStatement("INSERT INTO item VALUES (?)");
+				PreparedStatement select = connection.prepareStatement("SELECT id FROM item WHERE id > ?")) {
+			insert.setInt(1, 4);
+			insert.addBatch();
+			insert.setInt(1, 5);
+			insert.addBatch();
+			insert.executeBatch();
+			insert.setInt(1, 6);
+			insert.executeUpdate();
+			select.setInt(1, 3);
+			read(select.executeQuery());
+			select.setInt(1, 4);
+			Assert.assertTrue(select.execute());
+			read(select.getResultSet());
+		} finally {
+			SqlTrace.exit(previous);
+		}
+		Assert.assertEquals(4, trace.getStatementCount());
+		Assert.assertEquals("INSERT INTO item VALUES (?)", trace.getStatements().get(0).getSql());
+		Assert.assertEquals(2, trace.getStatements().get(0).getRows());
+		Assert.assertEquals(1, trace.getStatements().get(1).getRows());
+		Assert.assertEquals(3, trace.getStatements().get(2).getRows());
+		Assert.assertEquals(2, trace.getStatements().get(3).getRows());
+	}
+
+	//Tests the callable statement's queries are traced
+	@Test
+	public void traceCallableStatement() throws SQLException {
+		SqlTrace previous = SqlTrace.enter(trace);
+		try (CallableStatement call = connection.prepareCall("SELECT id FROM item")) {
+			read(call.executeQuery());
+		} finally {
+			SqlTrace.exit(previous);
+		}
+		Assert.assertEquals(1, trace.getStatementCount());
+		Assert.assertEquals(3, trace.getStatements().get(0).getRows());
+	}
+
+	//Tests the statements run while no request is traced are not recorded nor their result sets wrapped
+	@Test
+	public void notTraced() throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			Assert.assertFalse(statement.executeQuery("SELECT id FROM item") instanceof TracingResultSet);
+		}
+		Assert.assertEquals(0, trace.getStatementCount());
+	}
+
+	private static void read(ResultSet resultSet) throws SQLException {
+		while (resultSet.next()) {
+			resultSet.getInt(1);
+		}
+		resultSet.close();
+	}
+}